@@ -0,0 +1,110 @@
+package com.waracle.androidtest;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Points the app at a {@link StandInCakeServer} with a large feed, then flings through the list
+ * and logs the time to the first row, the parse time, the scroll frame times of
+ * {@link CakeAdapter} and the peak heap.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CakeListStressTest {
+
+    private static final String TAG = CakeListStressTest.class.getSimpleName();
+
+    private static final int CAKE_COUNT = 10000;
+    private static final long LOAD_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final int FLINGS = 20;
+    private static final int FLING_VELOCITY = 8000;
+    private static final long FLING_MILLIS = 1000;
+
+    // Launched by hand, once the feed has been pointed at the stand-in server
+    @Rule
+    public final ActivityTestRule<MainActivity> mActivityRule = new ActivityTestRule<>(MainActivity.class, false, false);
+
+    private StandInCakeServer mServer;
+    private long mPeakHeapBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInCakeServer(CAKE_COUNT, 0.5f, 240, 50);
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final URL feedUrl = mServer.getFeedUrl();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                CakeRepository.getInstance(context).setFeedUrls(Collections.singletonList(feedUrl));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void scrollsThroughLargeFeed() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        MainActivity activity = mActivityRule.launchActivity(null);
+        final RecyclerView recyclerView = (RecyclerView) activity.findViewById(R.id.list);
+
+        long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MILLIS;
+        while (recyclerView.getAdapter().getItemCount() < CAKE_COUNT && SystemClock.uptimeMillis() < deadline) {
+            sampleHeap();
+            SystemClock.sleep(100);
+        }
+        assertEquals(CAKE_COUNT, recyclerView.getAdapter().getItemCount());
+
+        for (int i = 0; i < FLINGS; i++) {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    recyclerView.fling(0, FLING_VELOCITY);
+                }
+            });
+            SystemClock.sleep(FLING_MILLIS);
+            sampleHeap();
+        }
+        instrumentation.waitForIdleSync();
+
+        Metrics metrics = Metrics.getInstance();
+        FrameMonitor frameMonitor = FrameMonitor.getInstance();
+        Log.i(TAG, CAKE_COUNT + " cakes: first row " + metrics.getPercentileMicros(Metrics.Timer.FIRST_ROW, 0.5) / 1000
+                + "ms, parse " + metrics.getPercentileMicros(Metrics.Timer.FEED_PARSE, 0.5) / 1000
+                + "ms, frames p50 " + frameMonitor.getFramePercentileMillis(0.5)
+                + "ms p90 " + frameMonitor.getFramePercentileMillis(0.9)
+                + "ms p99 " + frameMonitor.getFramePercentileMillis(0.99)
+                + "ms, peak heap " + mPeakHeapBytes / 1024 + "KB, " + mServer.getImageRequestCount() + " images");
+        Log.i(TAG, frameMonitor.describe());
+        Log.i(TAG, metrics.dump(false));
+
+        assertTrue(frameMonitor.getFrameCount() > 0);
+    }
+
+    private void sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        mPeakHeapBytes = Math.max(mPeakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+/**
+ * Memory cache of decoded cake images, bounded by the bytes the bitmaps take up
+ * rather than how many there are.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class BitmapMemoryCache extends LruCache<String, Bitmap> {
+
+    // Told when a bitmap leaves the cache, so it can be reused once it is off screen too
+    interface OnBitmapRemovedListener {
+        void onBitmapRemoved(Bitmap bitmap);
+    }
+
+    private final OnBitmapRemovedListener mListener;
+
+    BitmapMemoryCache(int maxSizeBytes, OnBitmapRemovedListener listener) {
+        super(maxSizeBytes);
+        this.mListener = listener;
+    }
+
+    // The same image is decoded at a different size for different targets, so each size has its own entry
+    static String key(String url, int width, int height) {
+        return url + '@' + width + 'x' + height;
+    }
+
+    @Override
+    protected int sizeOf(String key, Bitmap bitmap) {
+        // A pooled bitmap reshaped to a smaller image still holds its whole allocation
+        return BitmapPool.allocationSize(bitmap);
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+        if (oldValue != newValue && mListener != null) {
+            mListener.onBitmapRemoved(oldValue);
+        }
+    }
+}
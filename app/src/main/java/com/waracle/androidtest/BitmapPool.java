@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of bitmaps no longer on screen or in the memory cache, handed back to the
+ * decoder through BitmapFactory.Options#inBitmap so scrolling doesn't allocate a
+ * new bitmap for every row.
+ * <p/>
+ * Bitmaps are bucketed by their allocation size. From KitKat any bitmap at least as big as
+ * the decoded image can be reused, before that only one of exactly the same dimensions and
+ * only when the image isn't subsampled. Below Honeycomb inBitmap isn't available at all and
+ * the pool stays empty.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class BitmapPool {
+
+    // Don't waste more than this multiple of the bytes actually needed on a reused bitmap
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    private final int mMaxSizeBytes;
+    private int mSizeBytes;
+
+    // Allocation size to the bitmaps of that size, oldest first
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<>();
+    // Every pooled bitmap in the order it was added, so the oldest is dropped first when full
+    private final LinkedHashMap<Bitmap, Integer> mInsertionOrder = new LinkedHashMap<>();
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mPutCount;
+    private long mEvictionCount;
+
+    BitmapPool(int maxSizeBytes) {
+        this.mMaxSizeBytes = maxSizeBytes;
+    }
+
+    static boolean isReuseSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Returns a bitmap that an image decoded to the given size can be decoded into,
+     * or null if there isn't one, in which case the decoder allocates a new bitmap.
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config, int inSampleSize) {
+        Bitmap bitmap = null;
+        if (!isReuseSupported()) {
+            return null;
+        }
+
+        int neededBytes = width * height * bytesPerPixel(config);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Map.Entry<Integer, LinkedList<Bitmap>> bucket = mBuckets.ceilingEntry(neededBytes);
+            if (bucket != null && bucket.getKey() <= neededBytes * MAX_SIZE_MULTIPLE) {
+                bitmap = bucket.getValue().removeFirst();
+                removeBucketIfEmpty(bucket.getKey(), bucket.getValue());
+            }
+        } else if (inSampleSize == 1) {
+            LinkedList<Bitmap> bucket = mBuckets.get(neededBytes);
+            if (bucket != null) {
+                Iterator<Bitmap> iterator = bucket.iterator();
+                while (iterator.hasNext()) {
+                    Bitmap candidate = iterator.next();
+                    if (candidate.getWidth() == width && candidate.getHeight() == height
+                            && candidate.getConfig() == config) {
+                        iterator.remove();
+                        bitmap = candidate;
+                        break;
+                    }
+                }
+                removeBucketIfEmpty(neededBytes, bucket);
+            }
+        }
+
+        if (bitmap == null) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        mSizeBytes -= mInsertionOrder.remove(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Returns a pooled bitmap of exactly the given size to draw into, or null if there isn't one.
+     * Its previous contents are left in place.
+     */
+    synchronized Bitmap getExact(int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            // Bitmaps can't be reshaped yet, and get() only hands back one of exactly these dimensions
+            return get(width, height, config, 1);
+        }
+        Bitmap bitmap = get(width, height, config, 1);
+        if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height
+                || bitmap.getConfig() != config)) {
+            // A bigger bitmap is reshaped in place
+            bitmap.reconfigure(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Offers a bitmap that is no longer displayed or cached for reuse.
+     * The caller must not touch the bitmap again afterwards.
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (!isReuseSupported() || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || mInsertionOrder.containsKey(bitmap)) {
+            return;
+        }
+
+        int size = allocationSize(bitmap);
+        if (size > mMaxSizeBytes) {
+            return;
+        }
+
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        mInsertionOrder.put(bitmap, size);
+        mSizeBytes += size;
+        mPutCount++;
+
+        trimToSize(mMaxSizeBytes);
+    }
+
+    // Drops the oldest pooled bitmaps until the pool is no bigger than the given size
+    synchronized void trimToSize(int maxSizeBytes) {
+        Iterator<Map.Entry<Bitmap, Integer>> iterator = mInsertionOrder.entrySet().iterator();
+        while (mSizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<Bitmap, Integer> oldest = iterator.next();
+            iterator.remove();
+
+            LinkedList<Bitmap> bucket = mBuckets.get(oldest.getValue());
+            bucket.remove(oldest.getKey());
+            removeBucketIfEmpty(oldest.getValue(), bucket);
+
+            mSizeBytes -= oldest.getValue();
+            mEvictionCount++;
+        }
+    }
+
+    synchronized void clear() {
+        trimToSize(0);
+    }
+
+    // Number of decodes that reused a pooled bitmap
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    // Number of decodes that had to allocate a new bitmap
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    synchronized int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    int getMaxSizeBytes() {
+        return mMaxSizeBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[hits=" + mHitCount + ", misses=" + mMissCount + ", puts=" + mPutCount
+                + ", evictions=" + mEvictionCount + ", size=" + mSizeBytes + "/" + mMaxSizeBytes + "]";
+    }
+
+    private void removeBucketIfEmpty(int size, LinkedList<Bitmap> bucket) {
+        if (bucket.isEmpty()) {
+            mBuckets.remove(size);
+        }
+    }
+
+    static int allocationSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        }
+        return 4;
+    }
+}
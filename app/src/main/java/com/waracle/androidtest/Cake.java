@@ -14,17 +14,13 @@ package com.waracle.androidtest;/*
  * limitations under the License.
  */
 
-import java.io.Serializable;
-
 /**
  * Class Description
  *
  * @author michaelakakpo
  * @version 30/09/15.
  */
-public class Cake implements Serializable {
-
-    private static final long serialVersionUID = 1L;
+public class Cake {
 
     private String title;
     private String description;
@@ -54,4 +50,28 @@ public class Cake implements Serializable {
     public String getImage() {
         return image;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Cake cake = (Cake) o;
+        return equal(title, cake.title) && equal(description, cake.description) && equal(image, cake.image);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = title != null ? title.hashCode() : 0;
+        result = 31 * result + (description != null ? description.hashCode() : 0);
+        result = 31 * result + (image != null ? image.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
 }
@@ -16,32 +16,72 @@
 package com.waracle.androidtest;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 
-import com.squareup.picasso.Picasso;
-
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Displays the row for each article in the list
+ * <p/>
+ * A new list of cakes is compared with the one shown off the main thread, and only the rows
+ * that were inserted, removed, moved or changed are updated. Rows whose cake is unchanged keep
+ * their bound image and are not rebound at all.
+ * <p/>
+ * The text of each row is fitted to it off the main thread by a {@link RowTextCache}, so a cake
+ * with a long description binds as quickly as one with a short one.
  *
  * @author michaelakakpo
  * @version 1/10/15.
  */
-class CakeAdapter extends ArrayAdapter {
+class CakeAdapter extends RecyclerView.Adapter<CakeViewHolder> {
+
+    // Payload for a row whose text changed but whose image didn't, so the image isn't reloaded
+    private static final Object PAYLOAD_TEXT_ONLY = new Object();
+
+    // Spreads repeats of the same cake across the id space
+    private static final long REPEAT_ID_STEP = 0x9E3779B97F4A7C15L;
 
     private final Context mContext;
+    private final ImageLoader mImageLoader;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final RowTextCache mRowText = new RowTextCache();
+
+    // Times each bind, and how long the list took to show its first row
+    private final Metrics mMetrics = Metrics.getInstance();
+    private final FrameMonitor mFrameMonitor = FrameMonitor.getInstance();
+    private final long mCreatedAt = Metrics.now();
+    private boolean mFirstRowBound;
 
-    private List<Cake> listOfCakes = new ArrayList<>();
+    /* The cakes shown and their ids, replaced as a whole or grown at the end, never changed in place.
+    The ids array can be longer than the list, and the repeats counted so far carry on into appended rows. */
+    private CakeCatalog listOfCakes = CakeCatalog.empty();
+    private long[] mIds = new long[0];
+    private Map<Long, Integer> mRepeats = new HashMap<>();
 
-    public CakeAdapter(Context context, List objects) {
-        super(context, R.layout.cake_row, objects);
+    // What the latest diff is heading for, null when no diff is running
+    private List<Cake> mPendingCakes;
+    // Bumped on every new list so a diff overtaken by a newer one is thrown away
+    private int mGeneration;
+
+    public CakeAdapter(Context context) {
         this.mContext = context;
-        this.listOfCakes = objects;
+        this.mImageLoader = ImageLoader.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    @Override
+    public CakeViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View rowCake = LayoutInflater.from(mContext).inflate(R.layout.cake_row, parent, false);
+        return new CakeViewHolder(rowCake);
     }
 
     /**
@@ -49,46 +89,53 @@ class CakeAdapter extends ArrayAdapter {
      * * appropriate Cake object that is that position in the list
      */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
+    public void onBindViewHolder(CakeViewHolder cakeViewHolder, int position) {
+        long bindStart = Metrics.now();
         Cake currentCake = getItem(position);
-        CakeViewHolder cakeViewHolder;
+        bindText(cakeViewHolder, currentCake);
 
-        // represents the row being inflated and recycled
-        View rowCake = convertView;
+        // Decoded at the size of the row's ImageView, cancelling whatever the recycled row was loading
+        mImageLoader.load(currentCake.getImage(), cakeViewHolder.getImage());
 
-        // First time instantiating rows of a article so needs to be inflated
-        if (rowCake == null) {
+        mMetrics.record(Metrics.Timer.ROW_BIND, bindStart);
+        mFrameMonitor.addWork(FrameMonitor.Work.BIND, bindStart);
+        if (!mFirstRowBound) {
+            mFirstRowBound = true;
+            mMetrics.record(Metrics.Timer.FIRST_ROW, mCreatedAt);
+        }
+    }
 
-            LayoutInflater inflater = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            rowCake = inflater.inflate(R.layout.cake_row, parent, false);
-            cakeViewHolder = new CakeViewHolder(rowCake);
+    @Override
+    public void onBindViewHolder(CakeViewHolder cakeViewHolder, int position, List<Object> payloads) {
+        if (!payloads.contains(PAYLOAD_TEXT_ONLY)) {
+            onBindViewHolder(cakeViewHolder, position);
+            return;
+        }
+        // Only the text changed, leave the image that is already showing
+        bindText(cakeViewHolder, getItem(position));
+    }
 
-            rowCake.setTag(cakeViewHolder);
+    private void bindText(CakeViewHolder cakeViewHolder, Cake cake) {
+        if (mRowText.update(cakeViewHolder.getTitle(), cakeViewHolder.getDescription())) {
+            // First row laid out, or the rows changed size, so fit the rows around the screen to them
+            mRowText.precompute(listOfCakes);
+        }
+        CharSequence[] fitted = mRowText.get(cake);
+        if (fitted != null) {
+            cakeViewHolder.getTitle().setText(fitted[0]);
+            cakeViewHolder.getDescription().setText(fitted[1]);
         } else {
-            //recycling the viewholder once the convertview is no longer null
-            cakeViewHolder = (CakeViewHolder) rowCake.getTag();
-        }
-        cakeViewHolder.getTitle().setText(currentCake.getTitle());
-        cakeViewHolder.getDescription().setText(currentCake.getDescription());
-
-        Picasso.with(mContext)
-                .load(currentCake.getImage())
-                .resize(256, 256) // TODO - Use the default params not hardcoded fields
-                .centerCrop()
-                .noPlaceholder()
-                .noFade()
-//                .error(R.drawable.ic_launcher_fab48) // TODO - find img for placeholder & for error
-                .tag(cakeViewHolder)
-                .into(cakeViewHolder.getImage());
-
-        return rowCake;
+            // Not fitted yet, the TextViews measure it themselves
+            cakeViewHolder.getTitle().setText(cake.getTitle());
+            cakeViewHolder.getDescription().setText(cake.getDescription());
+        }
     }
 
     /**
      * @inheritDoc
      */
     @Override
-    public int getCount() {
+    public int getItemCount() {
         return listOfCakes.size();
     }
 
@@ -96,16 +143,165 @@ class CakeAdapter extends ArrayAdapter {
      * @inheritDoc
      */
     @Override
+    public long getItemId(int position) {
+        return mIds[position];
+    }
+
     public Cake getItem(int position) {
         return listOfCakes.get(position);
     }
 
-    /* Add the items from the updated Cakes to the list and notify any observers and refresh the changes */
+    // The list scrolled, so fit the text of the rows coming up to it
+    void onRowsVisible(int firstVisibleItem, int lastVisibleItem) {
+        mRowText.precompute(listOfCakes, firstVisibleItem, lastVisibleItem);
+    }
+
+    /* Replace the cakes shown with the updated Cakes, updating only the rows that changed */
     public void addItemsToList(List<Cake> restoredCakes) {
-        if (restoredCakes != null) {
-            listOfCakes.clear();
-            listOfCakes.addAll(restoredCakes);
-            notifyDataSetChanged();
+        if (restoredCakes == null) {
+            return;
+        }
+
+        final int generation = ++mGeneration;
+        final List<Cake> oldCakes = listOfCakes;
+        final long[] oldIds = mIds;
+        final CakeCatalog newCakes = CakeCatalog.copyOf(restoredCakes);
+        mPendingCakes = newCakes;
+        // Fitted while the diff runs, ready for the rows it changes
+        mRowText.precompute(newCakes);
+
+        TaskScheduler.getInstance().submit(TaskScheduler.Pool.COMPUTE, TaskScheduler.Priority.VISIBLE, new Runnable() {
+            @Override
+            public void run() {
+                final Map<Long, Integer> newRepeats = new HashMap<>();
+                final long[] newIds = assignIds(newCakes, 0, new long[newCakes.size()], newRepeats);
+                final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                        new CakeDiffCallback(oldCakes, oldIds, newCakes, newIds), true);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // A newer list arrived while this one was being compared
+                            return;
+                        }
+                        listOfCakes = newCakes;
+                        mIds = newIds;
+                        mRepeats = newRepeats;
+                        mPendingCakes = null;
+                        diffResult.dispatchUpdatesTo(CakeAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /* Show the cakes parsed so far, which are the cakes shown with more added at the end, inserting only the new rows */
+    public void appendItemsToList(List<Cake> grownCakes) {
+        if (grownCakes == null) {
+            return;
+        }
+
+        int start = listOfCakes.size();
+        if (mPendingCakes != null || grownCakes.size() < start) {
+            // The rows shown are about to be replaced, so compare against what they are being replaced with
+            addItemsToList(grownCakes);
+            return;
+        }
+
+        listOfCakes = CakeCatalog.copyOf(grownCakes);
+        // Only the new rows get ids, the rows already shown keep theirs
+        mIds = assignIds(listOfCakes, start, mIds, mRepeats);
+        // Only fits anything if the new rows are near the screen
+        mRowText.precompute(listOfCakes);
+        notifyItemRangeInserted(start, listOfCakes.size() - start);
+    }
+
+    /* Show the same cakes from a different copy, e.g. one read from disk, without touching any row */
+    public void replaceWithSameCakes(List<Cake> sameCakes) {
+        if (mPendingCakes != null || sameCakes.size() != listOfCakes.size()) {
+            // Not what is shown after all, compare it properly
+            addItemsToList(sameCakes);
+            return;
+        }
+        listOfCakes = CakeCatalog.copyOf(sameCakes);
+    }
+
+    /**
+     * Gives each cake from the start position on an id from its title and image, which stay the same
+     * when only its description changes. The feed can list the same cake more than once, so repeats are
+     * numbered to keep every id unique, counting on from the repeats of the cakes before the start.
+     *
+     * @return the ids, in the array given if it has room, otherwise in a bigger copy of it
+     */
+    static long[] assignIds(List<Cake> cakes, int start, long[] ids, Map<Long, Integer> repeats) {
+        if (ids.length < cakes.size()) {
+            // Grown ahead, so streaming a feed in batches doesn't copy the ids for every batch
+            ids = Arrays.copyOf(ids, Math.max(cakes.size(), ids.length * 2));
+        }
+        for (int i = start; i < cakes.size(); i++) {
+            Cake cake = cakes.get(i);
+            long id = hash(cake.getTitle(), hash(cake.getImage(), 0xcbf29ce484222325L));
+            Integer seen = repeats.get(id);
+            int count = seen == null ? 0 : seen;
+            repeats.put(id, count + 1);
+            ids[i] = id + count * REPEAT_ID_STEP;
+        }
+        return ids;
+    }
+
+    // 64 bit FNV-1a, so ids are far less likely to collide than with String#hashCode
+    private static long hash(String value, long hash) {
+        if (value == null) {
+            return hash * 0x100000001b3L;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Compares the rows shown with a new list of cakes by id, then by content.
+     */
+    private static class CakeDiffCallback extends DiffUtil.Callback {
+
+        private final List<Cake> mOldCakes;
+        private final long[] mOldIds;
+        private final List<Cake> mNewCakes;
+        private final long[] mNewIds;
+
+        CakeDiffCallback(List<Cake> oldCakes, long[] oldIds, List<Cake> newCakes, long[] newIds) {
+            this.mOldCakes = oldCakes;
+            this.mOldIds = oldIds;
+            this.mNewCakes = newCakes;
+            this.mNewIds = newIds;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldCakes.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewCakes.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldIds[oldItemPosition] == mNewIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldCakes.get(oldItemPosition).equals(mNewCakes.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            // The same id means the same title and image, so only the description can have changed
+            return PAYLOAD_TEXT_ONLY;
         }
     }
 }
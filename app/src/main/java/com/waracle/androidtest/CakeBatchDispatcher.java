@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Passes cakes from the parser to the main thread in small batches while the feed is
+ * still downloading, so the first rows show as soon as the first entries arrive.
+ * <p/>
+ * Each post to the main thread hands over at most one batch. If handing a batch over takes
+ * longer than the time budget the batch size is halved, and it grows back towards the
+ * configured size while posts come in under budget, so a large feed never drops frames.
+ * A batch that isn't full is handed over within 100ms of the last post even if the feed
+ * stalls, so the cakes already parsed never wait on a hung connection.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class CakeBatchDispatcher implements CakeFeedParser.Listener {
+
+    // Receives each batch on the main thread, in feed order
+    interface Sink {
+        void onCakes(List<Cake> batch);
+    }
+
+    // Post whatever has been parsed at least this often, however slowly the feed arrives
+    private static final long MAX_BATCH_DELAY_MILLIS = 100;
+
+    private final Handler mMainHandler;
+    private final Sink mSink;
+    private final int mMaxBatchSize;
+    private final long mBudgetMillis;
+
+    // Guarded by mPending
+    private final ArrayDeque<Cake> mPending = new ArrayDeque<>();
+    private boolean mDrainPosted;
+    // Set while a flush of a partial batch is waiting out the rest of the delay
+    private boolean mFlushPosted;
+    private long mLastPostTime;
+    private Runnable mOnFinished;
+
+    // Adjusted on the main thread, read by the parsing thread
+    private volatile int mBatchSize;
+
+    /**
+     * @param batchSize    most cakes handed to the sink in one main thread post
+     * @param budgetMillis main thread time one post should stay within
+     */
+    CakeBatchDispatcher(Handler mainHandler, int batchSize, long budgetMillis, Sink sink) {
+        this.mMainHandler = mainHandler;
+        this.mMaxBatchSize = Math.max(1, batchSize);
+        this.mBatchSize = mMaxBatchSize;
+        this.mBudgetMillis = budgetMillis;
+        this.mSink = sink;
+    }
+
+    // Called on the parsing thread
+    @Override
+    public void onCake(Cake cake) {
+        synchronized (mPending) {
+            mPending.add(cake);
+            long now = SystemClock.uptimeMillis();
+            if (mDrainPosted) {
+                return;
+            }
+            long sinceLastPost = now - mLastPostTime;
+            if (mPending.size() >= mBatchSize || sinceLastPost >= MAX_BATCH_DELAY_MILLIS) {
+                postDrain(now);
+            } else if (!mFlushPosted) {
+                // The next cake may be a long time coming, so don't rely on it to send this batch
+                mFlushPosted = true;
+                mMainHandler.postDelayed(mFlush, MAX_BATCH_DELAY_MILLIS - sinceLastPost);
+            }
+        }
+    }
+
+    /**
+     * Called on the parsing thread once the feed has ended. Whatever is left is delivered and
+     * then the callback is run on the main thread, after the last batch.
+     */
+    void finish(Runnable onFinished) {
+        synchronized (mPending) {
+            mOnFinished = onFinished;
+            if (!mDrainPosted) {
+                postDrain(SystemClock.uptimeMillis());
+            }
+        }
+    }
+
+    private void postDrain(long now) {
+        if (mFlushPosted) {
+            mFlushPosted = false;
+            mMainHandler.removeCallbacks(mFlush);
+        }
+        mDrainPosted = true;
+        mLastPostTime = now;
+        mMainHandler.post(mDrain);
+    }
+
+    // Sends a partial batch the feed stalled on
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mPending) {
+                mFlushPosted = false;
+                if (!mDrainPosted && !mPending.isEmpty()) {
+                    postDrain(SystemClock.uptimeMillis());
+                }
+            }
+        }
+    };
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            List<Cake> batch = new ArrayList<>(mBatchSize);
+            boolean morePending;
+            synchronized (mPending) {
+                while (!mPending.isEmpty() && batch.size() < mBatchSize) {
+                    batch.add(mPending.poll());
+                }
+                morePending = !mPending.isEmpty();
+                // A cake that arrives from now on posts a new drain unless this one reposts itself
+                mDrainPosted = morePending;
+            }
+
+            if (!batch.isEmpty()) {
+                long startTime = SystemClock.uptimeMillis();
+                mSink.onCakes(batch);
+                long elapsed = SystemClock.uptimeMillis() - startTime;
+
+                // Keep each post inside the budget, backing off quickly and recovering slowly
+                if (elapsed > mBudgetMillis) {
+                    mBatchSize = Math.max(1, mBatchSize / 2);
+                } else if (elapsed < mBudgetMillis / 2 && mBatchSize < mMaxBatchSize) {
+                    mBatchSize++;
+                }
+            }
+
+            if (morePending) {
+                // Yield so the frame can be drawn before the next batch
+                mMainHandler.post(this);
+                return;
+            }
+
+            Runnable onFinished;
+            synchronized (mPending) {
+                onFinished = mOnFinished;
+                mOnFinished = null;
+            }
+            if (onFinished != null) {
+                onFinished.run();
+            }
+        }
+    };
+}
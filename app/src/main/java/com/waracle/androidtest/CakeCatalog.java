@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Compact, read only list of cakes for feeds that repeat the same entries many times over.
+ * <p/>
+ * Every distinct cake is held once, as a shared record whose strings come from one table, so
+ * repeated titles, descriptions and urls are never stored twice. The list itself is just an
+ * array of record numbers. The records handed out are shared by every position that lists the
+ * same cake, and must not be changed. A catalog read from a {@link CakeSnapshot} decodes each
+ * record the first time it is asked for.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+final class CakeCatalog extends AbstractList<Cake> implements RandomAccess {
+
+    // Rough heap cost of the parts of a list of cakes, for reporting what deduplication saved
+    private static final int REFERENCE_BYTES = 4;
+    private static final int CAKE_BYTES = 24;
+    private static final int STRING_BYTES = 24;
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private static final CakeCatalog EMPTY = new Builder().build();
+
+    /**
+     * Supplies the records of a catalog that decodes them on demand. Must be safe to call from any thread.
+     */
+    interface RecordSource {
+        Cake getRecord(int recordNumber);
+    }
+
+    private final Cake[] mRecords;
+    private final RecordSource mRecordSource;
+    private final int mRecordCount;
+    private final int[] mEntries;
+    private final int mSize;
+    private final int mStringCount;
+    private final long mBytesSaved;
+
+    private CakeCatalog(Cake[] records, RecordSource recordSource, int recordCount, int[] entries, int size,
+                        int stringCount, long bytesSaved) {
+        this.mRecords = records;
+        this.mRecordSource = recordSource;
+        this.mRecordCount = recordCount;
+        this.mEntries = entries;
+        this.mSize = size;
+        this.mStringCount = stringCount;
+        this.mBytesSaved = bytesSaved;
+    }
+
+    static CakeCatalog empty() {
+        return EMPTY;
+    }
+
+    // Returns the list as a catalog, deduplicating it unless it already is one
+    static CakeCatalog copyOf(List<Cake> cakes) {
+        if (cakes instanceof CakeCatalog) {
+            return (CakeCatalog) cakes;
+        }
+        return new Builder().addAll(cakes).build();
+    }
+
+    // Distinct records taken from other catalogs, each listed once in the given order
+    static CakeCatalog ofRecords(Cake[] records, int count, int stringCount) {
+        int[] entries = new int[count];
+        for (int i = 0; i < count; i++) {
+            entries[i] = i;
+        }
+        return new CakeCatalog(records, null, count, entries, count, stringCount, 0);
+    }
+
+    // A catalog whose records are only decoded when first asked for
+    static CakeCatalog lazy(RecordSource recordSource, int recordCount, int[] entries, int stringCount,
+                            long bytesSaved) {
+        return new CakeCatalog(null, recordSource, recordCount, entries, entries.length, stringCount, bytesSaved);
+    }
+
+    @Override
+    public Cake get(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        return getRecord(mEntries[position]);
+    }
+
+    // The record listed at the position, numbered in the order the records were first added
+    int getRecordNumber(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        return mEntries[position];
+    }
+
+    Cake getRecord(int recordNumber) {
+        return mRecordSource != null ? mRecordSource.getRecord(recordNumber) : mRecords[recordNumber];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    // Number of different cakes in the list
+    int getDistinctCount() {
+        return mRecordCount;
+    }
+
+    // Number of different strings the cakes are made of
+    int getStringCount() {
+        return mStringCount;
+    }
+
+    // Roughly how many bytes less this takes than a list holding its own copy of every entry
+    long getBytesSaved() {
+        return mBytesSaved;
+    }
+
+    @Override
+    public String toString() {
+        return "CakeCatalog[size=" + mSize + ", distinct=" + mRecordCount + ", strings=" + mStringCount
+                + ", bytesSaved=" + mBytesSaved + "]";
+    }
+
+    /**
+     * Builds a catalog one cake at a time, e.g. as the feed is parsed.
+     * <p/>
+     * Only ever appends, so a catalog built earlier stays valid while more cakes are added and
+     * {@link #build()} is cheap enough to call after every batch. Must only be used from one thread
+     * at a time, the catalogs it builds can be used from any.
+     */
+    static final class Builder {
+
+        // Each string once, so equal strings from different entries become the same instance
+        private final Map<String, String> mStrings = new HashMap<>();
+        // Each distinct cake to its record number
+        private final Map<Cake, Integer> mRecordNumbers = new HashMap<>();
+
+        private Cake[] mRecords = new Cake[16];
+        private int[] mEntries = new int[16];
+        private int mSize;
+
+        // What the entries would take as separate objects, and what they take here
+        private long mSeparateBytes;
+        private long mSharedBytes;
+
+        /**
+         * Adds the cake to the end of the list, returning the shared record that now stands for it.
+         */
+        Cake add(Cake cake) {
+            Integer recordNumber = mRecordNumbers.get(cake);
+            if (recordNumber == null) {
+                Cake record = new Cake();
+                record.setTitle(intern(cake.getTitle()));
+                record.setDescription(intern(cake.getDescription()));
+                record.setImage(intern(cake.getImage()));
+
+                recordNumber = mRecordNumbers.size();
+                if (recordNumber == mRecords.length) {
+                    mRecords = Arrays.copyOf(mRecords, recordNumber * 2);
+                }
+                mRecords[recordNumber] = record;
+                mRecordNumbers.put(record, recordNumber);
+                mSharedBytes += CAKE_BYTES + REFERENCE_BYTES;
+            }
+
+            if (mSize == mEntries.length) {
+                mEntries = Arrays.copyOf(mEntries, mSize * 2);
+            }
+            mEntries[mSize++] = recordNumber;
+            mSharedBytes += 4;
+            mSeparateBytes += REFERENCE_BYTES + CAKE_BYTES + stringBytes(cake.getTitle())
+                    + stringBytes(cake.getDescription()) + stringBytes(cake.getImage());
+            return mRecords[recordNumber];
+        }
+
+        Builder addAll(List<Cake> cakes) {
+            for (int i = 0; i < cakes.size(); i++) {
+                add(cakes.get(i));
+            }
+            return this;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        // The cakes added so far, unaffected by anything added afterwards
+        CakeCatalog build() {
+            return new CakeCatalog(mRecords, null, mRecordNumbers.size(), mEntries, mSize, mStrings.size(),
+                    mSeparateBytes - mSharedBytes);
+        }
+
+        private String intern(String value) {
+            if (value == null) {
+                return null;
+            }
+            String shared = mStrings.get(value);
+            if (shared == null) {
+                mStrings.put(value, value);
+                mSharedBytes += stringBytes(value);
+                shared = value;
+            }
+            return shared;
+        }
+
+        private static long stringBytes(String value) {
+            if (value == null) {
+                return 0;
+            }
+            // The String object and its character array, rounded up to the 8 byte alignment
+            return STRING_BYTES + ((ARRAY_HEADER_BYTES + 2L * value.length() + 7) & ~7L);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streams the cake feed into {@link Cake} objects as the characters arrive,
+ * handing each one to a {@link Listener} instead of building the whole feed in memory.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+final class CakeFeedParser {
+
+    // JSON fields that need to be extracted from each entry of the feed
+    static final String CAKE_TITLE = "title";
+    static final String CAKE_DESCRIPTION = "desc";
+    static final String CAKE_IMAGE = "image";
+
+    // Receives every well formed cake in the order it appears in the feed
+    interface Listener {
+        void onCake(Cake cake);
+    }
+
+    private CakeFeedParser() {
+        /* Static helpers only */
+    }
+
+    /**
+     * Parses the top level array of the feed, skipping any entry that isn't an object
+     * with a title, description and image so the rest of the feed is still delivered.
+     *
+     * @return the number of cakes passed to the listener
+     * @throws IOException if the stream could not be read, is not well formed JSON or isn't an array, in which
+     *                     case the cakes parsed before the failure have already been delivered
+     */
+    static int parse(Reader reader, Listener listener) throws IOException {
+        JsonPullReader jsonReader = new JsonPullReader(reader);
+        int cakeCount = 0;
+
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            Cake cake = readCake(jsonReader);
+            if (cake != null) {
+                listener.onCake(cake);
+                cakeCount++;
+            }
+        }
+        jsonReader.endArray();
+
+        // Read through to the end so callers can tell the whole response arrived
+        jsonReader.peek();
+
+        return cakeCount;
+    }
+
+    /**
+     * Parses a feed already buffered as a String by building the whole JSON document first. Kept
+     * to measure the streaming parse against, a load never uses it.
+     *
+     * @return the number of cakes passed to the listener
+     * @throws JSONException if the feed is not well formed or an entry is missing a field
+     */
+    static int parseDocument(String response, Listener listener) throws JSONException {
+        // response string is converted into an object so it can be traversed to extract individual objects
+        JSONArray cakeItems = new JSONArray(response);
+
+        for (int currentCake = 0; currentCake < cakeItems.length(); currentCake++) {
+            JSONObject currentCakeItem = cakeItems.getJSONObject(currentCake);
+
+            Cake cakeItem = new Cake();
+            cakeItem.setTitle(currentCakeItem.getString(CAKE_TITLE));
+            cakeItem.setDescription(currentCakeItem.getString(CAKE_DESCRIPTION));
+            cakeItem.setImage(currentCakeItem.getString(CAKE_IMAGE));
+            listener.onCake(cakeItem);
+        }
+        return cakeItems.length();
+    }
+
+    // Reads a single entry of the feed, returning null if it is malformed
+    private static Cake readCake(JsonPullReader jsonReader) throws IOException {
+        if (jsonReader.peek() != JsonPullReader.Token.BEGIN_OBJECT) {
+            jsonReader.skipValue();
+            return null;
+        }
+
+        String cakeTitle = null;
+        String cakeDescription = null;
+        String cakeImageURL = null;
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            JsonPullReader.Token token = jsonReader.peek();
+            if (token != JsonPullReader.Token.STRING && token != JsonPullReader.Token.NUMBER
+                    && token != JsonPullReader.Token.BOOLEAN) {
+                // Nulls, arrays and objects are never valid cake fields
+                jsonReader.skipValue();
+            } else if (CAKE_TITLE.equals(name)) {
+                cakeTitle = jsonReader.nextString();
+            } else if (CAKE_DESCRIPTION.equals(name)) {
+                cakeDescription = jsonReader.nextString();
+            } else if (CAKE_IMAGE.equals(name)) {
+                cakeImageURL = jsonReader.nextString();
+            } else {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        if (cakeTitle == null || cakeDescription == null || cakeImageURL == null) {
+            return null;
+        }
+
+        Cake cakeItem = new Cake();
+        cakeItem.setTitle(cakeTitle);
+        cakeItem.setDescription(cakeDescription);
+        cakeItem.setImage(cakeImageURL);
+        return cakeItem;
+    }
+}
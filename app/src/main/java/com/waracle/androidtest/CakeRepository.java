@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns loading the cake feed for the whole process, independently of any activity or fragment.
+ * <p/>
+ * There is only ever one load running. Asking for the cakes while a load is running joins it
+ * rather than starting another, and the cakes already shown are kept in memory, so a UI that
+ * is recreated part way through a load, e.g. on rotation, picks up where the last one left off
+ * without a second download or parse.
+ * <p/>
+ * A download that fails for a reason that may clear up, e.g. a timeout or a server error, is
+ * tried again after a backoff while the UI carries on showing the stored cakes. When the
+ * network comes back after an outage the wait is skipped and the feed is fetched straight away.
+ * <p/>
+ * The cakes are indexed for searching in the background as they arrive, so a search never
+ * waits for the whole list to be indexed.
+ * <p/>
+ * When memory runs short the index is dropped, to be rebuilt by the next search, and once the
+ * process is close to being killed the cakes themselves are moved to a memory mapped snapshot,
+ * so only the ones shown are read back onto the heap.
+ * <p/>
+ * Must only be used from the main thread.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class CakeRepository implements MemoryGovernor.Trimmable {
+
+    /**
+     * Receives the cakes on the main thread.
+     */
+    interface Listener {
+
+        // Replaces the cakes shown
+        void onCakesLoaded(List<Cake> cakes);
+
+        // The cakes shown have grown at the end while the feed is still downloading, cakes is the whole list
+        void onCakesAppended(List<Cake> cakes);
+
+        // The load has ended, whether or not it changed anything
+        void onLoadFinished();
+
+        // The same cakes as before, now read from disk as they are needed, so any other copy should be let go
+        void onCakesSpilled(List<Cake> cakes);
+    }
+
+    /**
+     * Told on the main thread when a background sync's load has ended.
+     */
+    interface SyncListener {
+        void onSyncFinished(List<Cake> cakes);
+    }
+
+    /**
+     * Receives the results of a search on the main thread.
+     */
+    interface SearchListener {
+        void onSearchResults(String query, List<Cake> results);
+    }
+
+    private static final String TAG = CakeRepository.class.getSimpleName();
+
+    // How long a downloaded feed is shown before the server is asked whether it changed
+    private static final long FEED_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // Starts a couple of seconds after the first failure and settles at once every few minutes
+    private static final RetryPolicy FEED_RETRY = new RetryPolicy(2 * 1000, TimeUnit.MINUTES.toMillis(5), 8);
+
+    // Where the cakes in memory are moved to when memory runs out
+    private static final String SPILL_FILE = "cakes.spill";
+
+    private static CakeRepository sInstance;
+
+    private final Context mContext;
+    private final FeedCache mFeedCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final File mSpillFile;
+
+    // Feeds every load downloads, from the feed_urls resource unless pointed elsewhere
+    private List<URL> mFeedUrls;
+
+    // The UI currently showing the cakes, if any
+    private Listener mListener;
+
+    // Everything delivered so far, handed to a newly attached UI straight away
+    private CakeCatalog mCakes;
+    // The cakes read back from the spill file, while they are still the ones in memory
+    private CakeCatalog mSpilledCakes;
+
+    // Words of the cakes in memory, only used on the compute pool
+    private final CakeSearchIndex mSearchIndex = new CakeSearchIndex();
+
+    // The load in progress, null when idle
+    private DownloadCakesTask mLoad;
+
+    // True once the cakes in memory have been checked against the network
+    private boolean mFetchedFromNetwork;
+    // Wall clock time the cakes in memory were last known to match the feed, 0 if never
+    private long mCurrentAtMillis;
+    // Last snapshot of the cakes in memory, reused while they stay the same so each save doesn't encode them again
+    private CakeSnapshot mSnapshot;
+
+    // Downloads of the feed that failed in a row, reset once one succeeds
+    private int mFailedAttempts;
+    // Posted to load again once the backoff is over, null when no retry is waiting
+    private Runnable mRetry;
+
+    // Background syncs waiting on the load in progress
+    private final List<SyncListener> mSyncListeners = new ArrayList<>();
+
+    private CakeRepository(Context context) {
+        this.mContext = context;
+        this.mFeedCache = new FeedCache(context.getCacheDir(), FEED_MAX_AGE_MILLIS);
+        this.mSpillFile = new File(context.getCacheDir(), SPILL_FILE);
+        this.mFeedUrls = parseFeedUrls(context.getResources().getStringArray(R.array.feed_urls));
+        MemoryGovernor.getInstance(context).register(this);
+    }
+
+    static synchronized CakeRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CakeRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private static List<URL> parseFeedUrls(String[] feedUrls) {
+        List<URL> urls = new ArrayList<>();
+        for (String feedUrl : feedUrls) {
+            try {
+                urls.add(new URL(feedUrl));
+            } catch (MalformedURLException e) {
+                Log.e(TAG, "Skipping feed " + feedUrl + ": " + e.getMessage());
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Points every later load at other feeds, e.g. a stand-in server when measuring large feeds.
+     * A load already running carries on with the feeds it started with.
+     */
+    void setFeedUrls(List<URL> feedUrls) {
+        mFeedUrls = new ArrayList<>(feedUrls);
+    }
+
+    // Shows the cakes in memory, if any, and everything delivered from now on in the given UI
+    void attach(Listener listener) {
+        mListener = listener;
+        if (mCakes != null) {
+            listener.onCakesLoaded(mCakes);
+            if (mLoad == null) {
+                listener.onLoadFinished();
+            }
+        }
+    }
+
+    void detach(Listener listener) {
+        if (mListener == listener) {
+            mListener = null;
+        }
+    }
+
+    // The cakes in memory, for saving with the instance state, or null if nothing has been loaded yet
+    CakeSnapshot snapshot() {
+        if (mCakes == null) {
+            return null;
+        }
+        if (mSnapshot == null || mSnapshot.getCakes() != mCakes || mSnapshot.getSavedAtMillis() != mCurrentAtMillis) {
+            mSnapshot = new CakeSnapshot(mCakes, mCurrentAtMillis);
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * Puts back the cakes saved with the instance state after the process was killed, so they show
+     * without waiting for a load. Ignored if there are cakes in memory or a load has started already.
+     */
+    void restore(CakeSnapshot snapshot) {
+        if (mCakes != null || mLoad != null || snapshot.getCakes().isEmpty()) {
+            return;
+        }
+        mCakes = snapshot.getCakes();
+        updateSearchIndex();
+        mCurrentAtMillis = snapshot.getSavedAtMillis();
+        // Cakes that were current recently enough are shown as they are rather than fetched again
+        mFetchedFromNetwork = System.currentTimeMillis() - mCurrentAtMillis < FEED_MAX_AGE_MILLIS;
+        if (mListener != null) {
+            mListener.onCakesLoaded(mCakes);
+        }
+    }
+
+    boolean isLoading() {
+        return mLoad != null;
+    }
+
+    /**
+     * Loads the stored cakes and, when asked to, refreshes them from the network. Does nothing if
+     * a load is already running or the cakes in memory already cover what was asked for.
+     */
+    void load(boolean fetchFromNetwork) {
+        if (mLoad != null) {
+            Log.d(TAG, "Joining the load in progress");
+            return;
+        }
+        if (mCakes != null && (mFetchedFromNetwork || !fetchFromNetwork)) {
+            return;
+        }
+        startLoad(fetchFromNetwork, false);
+    }
+
+    /**
+     * Asks the server whether the feed changed, however recently it was checked. The cakes in
+     * memory stay shown meanwhile and are only replaced once the whole feed is in, so a UI showing
+     * them only updates the rows that changed.
+     */
+    void refresh() {
+        if (mLoad == null) {
+            startLoad(true, true);
+        }
+    }
+
+    // Whether the load running is a refresh, e.g. to keep showing its progress in a recreated UI
+    boolean isRefreshing() {
+        return mLoad != null && mLoad.isRefresh();
+    }
+
+    /**
+     * Fetches the feed for a background sync, joining the load in progress rather than starting
+     * another, so a sync and a launch never download the feed twice.
+     */
+    void sync(SyncListener listener) {
+        mSyncListeners.add(listener);
+        if (mLoad != null) {
+            Log.d(TAG, "Sync joining the load in progress");
+            return;
+        }
+        startLoad(true, false);
+    }
+
+    /**
+     * Finds the cakes in memory matching the query off the main thread, best match first. An
+     * empty query gives back all the cakes.
+     */
+    void search(final String query, final SearchListener listener) {
+        final CakeCatalog cakes = mCakes != null ? mCakes : CakeCatalog.empty();
+        TaskScheduler.getInstance().submit(TaskScheduler.Pool.COMPUTE, TaskScheduler.Priority.VISIBLE,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        long searchStart = Metrics.now();
+                        final List<Cake> results = mSearchIndex.search(cakes, query);
+                        Metrics.getInstance().record(Metrics.Timer.SEARCH, searchStart);
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onSearchResults(query, results);
+                            }
+                        });
+                    }
+                });
+    }
+
+    // Indexes whatever was added to the cakes in memory, behind anything on screen waiting for the compute pool
+    private void updateSearchIndex() {
+        final CakeCatalog cakes = mCakes;
+        TaskScheduler.getInstance().submit(TaskScheduler.Pool.COMPUTE, TaskScheduler.Priority.BACKGROUND,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mSearchIndex.update(cakes);
+                    }
+                });
+    }
+
+    @Override
+    public void onTrim(MemoryGovernor.Tier tier) {
+        if (tier.compareTo(MemoryGovernor.Tier.DROP_OFF_SCREEN) >= 0) {
+            // Encoded again on the next save if it comes to that
+            mSnapshot = null;
+            // Behind any update still queued, so the index isn't built again straight after
+            TaskScheduler.getInstance().submit(TaskScheduler.Pool.COMPUTE, TaskScheduler.Priority.BACKGROUND,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            mSearchIndex.clear();
+                        }
+                    });
+        }
+        if (tier == MemoryGovernor.Tier.SPILL) {
+            spill();
+        }
+    }
+
+    /**
+     * Writes the cakes in memory to a snapshot and swaps them for the snapshot mapped back in, so
+     * their strings only come back onto the heap as they are shown. A load still running is left
+     * alone, its cakes are about to change anyway.
+     */
+    private void spill() {
+        final CakeCatalog cakes = mCakes;
+        if (mLoad != null || cakes == null || cakes.isEmpty() || cakes == mSpilledCakes) {
+            return;
+        }
+        final long currentAtMillis = mCurrentAtMillis;
+        TaskScheduler.getInstance().submit(TaskScheduler.Pool.DISK_IO, TaskScheduler.Priority.VISIBLE,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final CakeCatalog spilledCakes;
+                        try {
+                            // Replaced by a rename, so a snapshot mapped earlier stays readable
+                            new CakeSnapshot(cakes, currentAtMillis).writeTo(mSpillFile);
+                            spilledCakes = CakeSnapshot.map(mSpillFile).getCakes();
+                        } catch (IOException e) {
+                            Log.e(TAG, "Error spilling cakes: " + e.getMessage());
+                            return;
+                        }
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mCakes != cakes || mLoad != null) {
+                                    // Replaced while they were being written
+                                    return;
+                                }
+                                Log.d(TAG, "Spilled " + spilledCakes);
+                                mCakes = spilledCakes;
+                                mSpilledCakes = spilledCakes;
+                                if (mListener != null) {
+                                    mListener.onCakesSpilled(mCakes);
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Called when a connection has become available. Fetches the feed straight away if the cakes
+     * in memory were never checked against the network, e.g. they were loaded while offline or the
+     * last download failed, rather than waiting for the UI to ask again or a backoff to run out.
+     */
+    void onNetworkAvailable() {
+        if (mLoad != null || mCakes == null || mFetchedFromNetwork) {
+            // Loading already, never asked for, or nothing to catch up on
+            return;
+        }
+        Log.d(TAG, "Network available, fetching the feed now");
+        // A new connection, so the failures on the last one no longer count
+        mFailedAttempts = 0;
+        startLoad(true, false);
+    }
+
+    // Schedules the feed to be fetched again after a backoff, if the failure is worth retrying
+    private void scheduleRetry(IOException failure) {
+        mFailedAttempts++;
+        if (!FEED_RETRY.shouldRetry(failure, mFailedAttempts)) {
+            Log.d(TAG, "Not retrying after " + mFailedAttempts + " failures: " + failure.getMessage());
+            return;
+        }
+        if (!NetworkUtil.isConnected(mContext)) {
+            // Nothing to retry on, onNetworkAvailable picks it up when there is
+            return;
+        }
+        long delayMillis = FEED_RETRY.getDelayMillis(mFailedAttempts);
+        Log.d(TAG, "Retrying the feed in " + delayMillis + "ms after " + mFailedAttempts + " failures");
+        mRetry = new Runnable() {
+            @Override
+            public void run() {
+                mRetry = null;
+                if (mLoad == null) {
+                    startLoad(true, false);
+                }
+            }
+        };
+        mMainHandler.postDelayed(mRetry, delayMillis);
+    }
+
+    private void startLoad(boolean fetchFromNetwork, boolean refresh) {
+        if (mRetry != null) {
+            // Whatever starts a load now stands in for the retry that was waiting
+            mMainHandler.removeCallbacks(mRetry);
+            mRetry = null;
+        }
+        mLoad = new DownloadCakesTask(mContext, mFeedCache, mFeedUrls, fetchFromNetwork, refresh, new Listener() {
+            @Override
+            public void onCakesLoaded(List<Cake> cakes) {
+                mCakes = CakeCatalog.copyOf(cakes);
+                updateSearchIndex();
+                if (mListener != null) {
+                    mListener.onCakesLoaded(mCakes);
+                }
+            }
+
+            @Override
+            public void onCakesAppended(List<Cake> cakes) {
+                mCakes = CakeCatalog.copyOf(cakes);
+                updateSearchIndex();
+                if (mListener != null) {
+                    mListener.onCakesAppended(mCakes);
+                }
+            }
+
+            @Override
+            public void onLoadFinished() {
+                // A failed download leaves the stored cakes in place, to be refreshed on a retry or the next load
+                IOException failure = mLoad.getFailure();
+                if (mLoad.isFeedComplete()) {
+                    mFetchedFromNetwork = true;
+                    mCurrentAtMillis = System.currentTimeMillis();
+                    mFailedAttempts = 0;
+                }
+                mLoad = null;
+                if (failure != null) {
+                    scheduleRetry(failure);
+                }
+                if (mCakes == null) {
+                    // Nothing stored and nothing downloaded, still worth remembering so the UI isn't left waiting
+                    mCakes = CakeCatalog.empty();
+                }
+                if (mListener != null) {
+                    mListener.onLoadFinished();
+                }
+                List<SyncListener> syncListeners = new ArrayList<>(mSyncListeners);
+                mSyncListeners.clear();
+                for (SyncListener syncListener : syncListeners) {
+                    syncListener.onSyncFinished(mCakes);
+                }
+            }
+
+            @Override
+            public void onCakesSpilled(List<Cake> cakes) {
+                // Only the repository spills cakes, never a load
+            }
+        });
+        mLoad.execute();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the words of the cakes' titles and descriptions, for searching as the user types.
+ * <p/>
+ * Each word maps to the cakes it appears in, by record number in a {@link CakeCatalog}, and the
+ * words are kept sorted so all those starting with a prefix are one range of the map. Every word
+ * of a query is matched as a prefix and a cake has to match all of them. Cakes are ranked by
+ * where the words matched, the title counting for more than the description and a whole word
+ * for more than the start of one, then by their order in the feed. Each distinct cake is
+ * indexed once however often the feed repeats it, and as the catalog grows only the records
+ * added since the last update are indexed.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+final class CakeSearchIndex {
+
+    // Score of a query word matched in the title and in the description
+    private static final int TITLE_SCORE = 4;
+    private static final int DESCRIPTION_SCORE = 1;
+    // Multiplies the score when the query word is the whole word rather than the start of one
+    private static final int WHOLE_WORD_FACTOR = 2;
+
+    // Postings hold the record number shifted left by one, with the low bit set for a title match
+    private final TreeMap<String, Postings> mPostings = new TreeMap<>();
+
+    // The catalog records were last indexed from, and how many of its records are indexed
+    private CakeCatalog mIndexedCakes;
+    private int mIndexedCount;
+
+    /**
+     * Indexes the records added to the catalog since the last update. A catalog that isn't a
+     * later version of the one indexed before, i.e. a different list, is indexed from scratch.
+     */
+    synchronized void update(CakeCatalog cakes) {
+        if (!continues(cakes)) {
+            mPostings.clear();
+            mIndexedCount = 0;
+        }
+        mIndexedCakes = cakes;
+
+        Map<String, Boolean> words = new HashMap<>();
+        for (int record = mIndexedCount; record < cakes.getDistinctCount(); record++) {
+            Cake cake = cakes.getRecord(record);
+            words.clear();
+            addWords(cake.getDescription(), false, words);
+            // Added last, so a word in both ends up marked as a title match
+            addWords(cake.getTitle(), true, words);
+            for (Map.Entry<String, Boolean> word : words.entrySet()) {
+                Postings postings = mPostings.get(word.getKey());
+                if (postings == null) {
+                    postings = new Postings();
+                    mPostings.put(word.getKey(), postings);
+                }
+                postings.add(record << 1 | (word.getValue() ? 1 : 0));
+            }
+        }
+        mIndexedCount = cakes.getDistinctCount();
+    }
+
+    // Whether the catalog holds the same records as the one indexed, and maybe more
+    private boolean continues(CakeCatalog cakes) {
+        if (mIndexedCakes == null || cakes.getDistinctCount() < mIndexedCount) {
+            return false;
+        }
+        // Catalogs built from the same records share the record objects themselves
+        return mIndexedCount == 0 || cakes.getRecord(mIndexedCount - 1) == mIndexedCakes.getRecord(mIndexedCount - 1);
+    }
+
+    // Whether the catalog holds the same records as the one indexed, maybe fewer of them
+    private boolean isIndexed(CakeCatalog cakes) {
+        int recordCount = cakes.getDistinctCount();
+        if (mIndexedCakes == null || recordCount > mIndexedCount) {
+            return false;
+        }
+        return recordCount == 0 || cakes.getRecord(recordCount - 1) == mIndexedCakes.getRecord(recordCount - 1);
+    }
+
+    /**
+     * Finds the distinct cakes of the catalog matching every word of the query, best match first.
+     * A query without any words matches the whole catalog.
+     */
+    synchronized CakeCatalog search(CakeCatalog cakes, String query) {
+        List<String> queryWords = new ArrayList<>();
+        addWords(query, false, queryWords);
+        if (queryWords.isEmpty()) {
+            return cakes;
+        }
+        // An older version of the catalog indexed already, e.g. a search queued before an update, is searched as it is
+        if (!isIndexed(cakes)) {
+            update(cakes);
+        }
+
+        int recordCount = cakes.getDistinctCount();
+        int[] scores = new int[recordCount];
+        // How many of the query words each record has matched so far
+        int[] matchedWords = new int[recordCount];
+
+        for (int i = 0; i < queryWords.size(); i++) {
+            String queryWord = queryWords.get(i);
+            // Every word starting with the query word sorts between it and the same followed by the highest char
+            for (Map.Entry<String, Postings> word
+                    : mPostings.subMap(queryWord, true, queryWord + Character.MAX_VALUE, false).entrySet()) {
+                int factor = word.getKey().length() == queryWord.length() ? WHOLE_WORD_FACTOR : 1;
+                Postings postings = word.getValue();
+                for (int p = 0; p < postings.mSize; p++) {
+                    int posting = postings.mEntries[p];
+                    int record = posting >>> 1;
+                    if (record >= recordCount) {
+                        // Postings are in record order, the rest were added after this catalog
+                        break;
+                    }
+                    if (matchedWords[record] < i) {
+                        // Missed an earlier word of the query
+                        continue;
+                    }
+                    matchedWords[record] = i + 1;
+                    scores[record] += factor * ((posting & 1) != 0 ? TITLE_SCORE : DESCRIPTION_SCORE);
+                }
+            }
+        }
+
+        // Sorted as one number, highest score first, then lowest record number
+        int matchCount = 0;
+        long[] ranked = new long[recordCount];
+        for (int record = 0; record < recordCount; record++) {
+            if (matchedWords[record] == queryWords.size()) {
+                ranked[matchCount++] = (long) -scores[record] << 32 | record;
+            }
+        }
+        Arrays.sort(ranked, 0, matchCount);
+
+        Cake[] results = new Cake[matchCount];
+        for (int i = 0; i < matchCount; i++) {
+            results[i] = cakes.getRecord((int) ranked[i]);
+        }
+        return CakeCatalog.ofRecords(results, matchCount, cakes.getStringCount());
+    }
+
+    // Forgets everything indexed, the next search indexes its catalog from scratch
+    synchronized void clear() {
+        mPostings.clear();
+        mIndexedCakes = null;
+        mIndexedCount = 0;
+    }
+
+    // Number of distinct words indexed
+    synchronized int getWordCount() {
+        return mPostings.size();
+    }
+
+    // Splits the text into lower case words of letters and digits
+    private static void addWords(String text, boolean inTitle, Map<String, Boolean> words) {
+        if (text == null) {
+            return;
+        }
+        String lowerCase = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lowerCase.length(); i++) {
+            boolean wordChar = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.put(lowerCase.substring(start, i), inTitle);
+                start = -1;
+            }
+        }
+    }
+
+    private static void addWords(String text, boolean inTitle, List<String> words) {
+        Map<String, Boolean> unique = new HashMap<>();
+        addWords(text, inTitle, unique);
+        words.addAll(unique.keySet());
+    }
+
+    /**
+     * The records a word appears in, in the order they were indexed.
+     */
+    private static final class Postings {
+
+        private int[] mEntries = new int[4];
+        private int mSize;
+
+        void add(int posting) {
+            if (mSize == mEntries.length) {
+                mEntries = Arrays.copyOf(mEntries, mSize * 2);
+            }
+            mEntries[mSize++] = posting;
+        }
+    }
+}
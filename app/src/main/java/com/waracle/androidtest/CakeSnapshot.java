@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A list of cakes frozen in a compact binary form, for saving instance state and for a file
+ * that can be memory mapped on the next launch.
+ * <p/>
+ * The layout follows {@link CakeCatalog}: a table of the distinct strings, the distinct cakes
+ * as numbers into that table, then the list as numbers of those cakes. Strings are length
+ * prefixed UTF-8. A header carries a version and a CRC32 of the numbers, so a snapshot from an
+ * older build or a torn write is rejected rather than misread. Reading only checks that checksum
+ * and copies the numbers. The strings are decoded the first time a cake is asked for, and each
+ * page of them has a CRC32 of its own, checked the first time a string in it is decoded, so
+ * mapping a snapshot never reads the pages of cakes that aren't shown. Text in a damaged page
+ * reads back as missing.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+final class CakeSnapshot implements Parcelable {
+
+    // "CAKE"
+    private static final int MAGIC = 0x43414b45;
+    private static final int VERSION = 2;
+
+    // magic, version, saved at, bytes saved, string count, record count, entry count, string bytes, checksum
+    static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 + 4;
+    // Strings are checked a page at a time, so checking one reads no more of the file than decoding it does
+    private static final int STRING_BLOCK_BYTES = 4096;
+    // Strings a record is made of: title, description and image
+    private static final int FIELDS_PER_RECORD = 3;
+    // Stands in for a missing string
+    private static final int NO_STRING = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final CakeCatalog mCakes;
+    private final long mSavedAtMillis;
+
+    // Encoded once, then reused for the parcel and the file
+    private byte[] mBytes;
+
+    CakeSnapshot(CakeCatalog cakes, long savedAtMillis) {
+        this.mCakes = cakes;
+        this.mSavedAtMillis = savedAtMillis;
+    }
+
+    CakeCatalog getCakes() {
+        return mCakes;
+    }
+
+    // Wall clock time the cakes were current at
+    long getSavedAtMillis() {
+        return mSavedAtMillis;
+    }
+
+    // Size of the encoded snapshot, encoding it if that hasn't been done yet
+    int getEncodedSize() {
+        return toByteArray().length;
+    }
+
+    synchronized byte[] toByteArray() {
+        if (mBytes == null) {
+            mBytes = encode();
+        }
+        return mBytes;
+    }
+
+    private byte[] encode() {
+        // Number the distinct strings in the order the records first use them
+        Map<String, Integer> stringNumbers = new HashMap<>();
+        int recordCount = mCakes.getDistinctCount();
+        int[] recordFields = new int[recordCount * FIELDS_PER_RECORD];
+        byte[][] encodedStrings = new byte[mCakes.getStringCount()][];
+        int stringDataBytes = 0;
+        for (int record = 0; record < recordCount; record++) {
+            Cake cake = mCakes.getRecord(record);
+            String[] fields = {cake.getTitle(), cake.getDescription(), cake.getImage()};
+            for (int field = 0; field < FIELDS_PER_RECORD; field++) {
+                String value = fields[field];
+                int stringNumber = NO_STRING;
+                if (value != null) {
+                    Integer known = stringNumbers.get(value);
+                    if (known == null) {
+                        known = stringNumbers.size();
+                        if (known == encodedStrings.length) {
+                            encodedStrings = Arrays.copyOf(encodedStrings, known * 2 + 1);
+                        }
+                        encodedStrings[known] = value.getBytes(UTF_8);
+                        stringDataBytes += 4 + encodedStrings[known].length;
+                        stringNumbers.put(value, known);
+                    }
+                    stringNumber = known;
+                }
+                recordFields[record * FIELDS_PER_RECORD + field] = stringNumber;
+            }
+        }
+        int stringCount = stringNumbers.size();
+        int entryCount = mCakes.size();
+        int blockCount = blockCount(stringDataBytes);
+
+        int tableBytes = 4 * (stringCount + recordFields.length + entryCount + blockCount);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + tableBytes + stringDataBytes);
+        buffer.position(HEADER_BYTES);
+
+        // Offsets let a single string be decoded without reading the ones before it
+        int offset = 0;
+        for (int i = 0; i < stringCount; i++) {
+            buffer.putInt(offset);
+            offset += 4 + encodedStrings[i].length;
+        }
+        for (int stringNumber : recordFields) {
+            buffer.putInt(stringNumber);
+        }
+        for (int position = 0; position < entryCount; position++) {
+            buffer.putInt(mCakes.getRecordNumber(position));
+        }
+        int blockCrcStart = buffer.position();
+        int stringDataStart = HEADER_BYTES + tableBytes;
+        buffer.position(stringDataStart);
+        for (int i = 0; i < stringCount; i++) {
+            buffer.putInt(encodedStrings[i].length);
+            buffer.put(encodedStrings[i]);
+        }
+
+        buffer.position(blockCrcStart);
+        for (int block = 0; block < blockCount; block++) {
+            int blockStart = block * STRING_BLOCK_BYTES;
+            CRC32 blockCrc = new CRC32();
+            blockCrc.update(buffer.array(), stringDataStart + blockStart,
+                    Math.min(STRING_BLOCK_BYTES, stringDataBytes - blockStart));
+            buffer.putInt((int) blockCrc.getValue());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, tableBytes);
+
+        buffer.position(0);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(mSavedAtMillis);
+        buffer.putLong(mCakes.getBytesSaved());
+        buffer.putInt(stringCount);
+        buffer.putInt(recordCount);
+        buffer.putInt(entryCount);
+        buffer.putInt(stringDataBytes);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * Reads a snapshot, throwing if it is from another version, truncated or corrupt. The buffer
+     * must not be changed afterwards, as the strings are only read from it when first needed.
+     */
+    static CakeSnapshot read(ByteBuffer buffer) throws IOException {
+        ByteBuffer snapshot = buffer.slice();
+        if (snapshot.remaining() < HEADER_BYTES) {
+            throw new IOException("Snapshot too short");
+        }
+        if (snapshot.getInt() != MAGIC) {
+            throw new IOException("Not a cake snapshot");
+        }
+        int version = snapshot.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        long savedAtMillis = snapshot.getLong();
+        long bytesSaved = snapshot.getLong();
+        int stringCount = snapshot.getInt();
+        int recordCount = snapshot.getInt();
+        int entryCount = snapshot.getInt();
+        int stringDataBytes = snapshot.getInt();
+        int expectedCrc = snapshot.getInt();
+
+        if (stringCount < 0 || recordCount < 0 || entryCount < 0 || stringDataBytes < 0) {
+            throw new IOException("Snapshot truncated");
+        }
+        int blockCount = blockCount(stringDataBytes);
+        long tableBytes = 4L * stringCount + 4L * FIELDS_PER_RECORD * recordCount + 4L * entryCount
+                + 4L * blockCount;
+        if (tableBytes + stringDataBytes > snapshot.remaining()) {
+            throw new IOException("Snapshot truncated");
+        }
+        // Only the numbers, which are copied out below anyway, the strings are checked as they are decoded
+        ByteBuffer tables = snapshot.duplicate();
+        tables.limit(tables.position() + (int) tableBytes);
+        if (checksum(tables) != expectedCrc) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+
+        int[] stringOffsets = new int[stringCount];
+        snapshot.asIntBuffer().get(stringOffsets);
+        snapshot.position(snapshot.position() + 4 * stringCount);
+
+        int[] recordFields = new int[recordCount * FIELDS_PER_RECORD];
+        snapshot.asIntBuffer().get(recordFields);
+        snapshot.position(snapshot.position() + 4 * recordFields.length);
+
+        int[] entries = new int[entryCount];
+        snapshot.asIntBuffer().get(entries);
+        snapshot.position(snapshot.position() + 4 * entryCount);
+
+        int[] blockCrcs = new int[blockCount];
+        snapshot.asIntBuffer().get(blockCrcs);
+        snapshot.position(snapshot.position() + 4 * blockCount);
+
+        // The checksum covers the numbers, this only guards against a snapshot written by a broken build
+        for (int recordNumber : entries) {
+            if (recordNumber < 0 || recordNumber >= recordCount) {
+                throw new IOException("Snapshot lists an unknown cake " + recordNumber);
+            }
+        }
+        for (int stringNumber : recordFields) {
+            if (stringNumber < NO_STRING || stringNumber >= stringCount) {
+                throw new IOException("Snapshot refers to an unknown string " + stringNumber);
+            }
+        }
+        for (int offset : stringOffsets) {
+            if (offset < 0 || offset > stringDataBytes - 4) {
+                throw new IOException("Snapshot has a string out of bounds at " + offset);
+            }
+        }
+
+        ByteBuffer stringData = snapshot.slice();
+        stringData.limit(stringDataBytes);
+        SnapshotRecords records = new SnapshotRecords(stringData, stringOffsets, recordFields, blockCrcs);
+        return new CakeSnapshot(CakeCatalog.lazy(records, recordCount, entries, stringCount, bytesSaved),
+                savedAtMillis);
+    }
+
+    static CakeSnapshot read(byte[] data) throws IOException {
+        return read(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Writes the snapshot to the file, replacing it only once the whole snapshot is on disk.
+     */
+    void writeTo(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        OutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            outputStream.write(toByteArray());
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Maps the file into memory and reads the snapshot from it, so only the pages holding the
+     * cakes actually shown are ever read from disk.
+     */
+    static CakeSnapshot map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping stays valid after the file is closed
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static int blockCount(int stringDataBytes) {
+        return (stringDataBytes + STRING_BLOCK_BYTES - 1) / STRING_BLOCK_BYTES;
+    }
+
+    private static int checksum(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        if (body.hasArray()) {
+            crc.update(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        } else {
+            byte[] chunk = new byte[8192];
+            while (body.hasRemaining()) {
+                int length = Math.min(chunk.length, body.remaining());
+                body.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(toByteArray());
+    }
+
+    // A snapshot that can't be read back restores as an empty list, the feed is then loaded as usual
+    public static final Parcelable.Creator<CakeSnapshot> CREATOR = new Parcelable.Creator<CakeSnapshot>() {
+        @Override
+        public CakeSnapshot createFromParcel(Parcel source) {
+            try {
+                return read(source.createByteArray());
+            } catch (IOException e) {
+                return new CakeSnapshot(CakeCatalog.empty(), 0);
+            }
+        }
+
+        @Override
+        public CakeSnapshot[] newArray(int size) {
+            return new CakeSnapshot[size];
+        }
+    };
+
+    /**
+     * Decodes each cake of a snapshot the first time it is asked for, and keeps it.
+     */
+    private static class SnapshotRecords implements CakeCatalog.RecordSource {
+
+        private final ByteBuffer mStringData;
+        private final int[] mStringOffsets;
+        private final int[] mRecordFields;
+        private final int[] mBlockCrcs;
+
+        // Guarded by this
+        private final String[] mStrings;
+        private final Cake[] mRecords;
+        // Blocks of string data whose checksum has been checked, and those of them that didn't match
+        private final BitSet mCheckedBlocks = new BitSet();
+        private final BitSet mDamagedBlocks = new BitSet();
+
+        SnapshotRecords(ByteBuffer stringData, int[] stringOffsets, int[] recordFields, int[] blockCrcs) {
+            this.mStringData = stringData;
+            this.mStringOffsets = stringOffsets;
+            this.mRecordFields = recordFields;
+            this.mBlockCrcs = blockCrcs;
+            this.mStrings = new String[stringOffsets.length];
+            this.mRecords = new Cake[recordFields.length / FIELDS_PER_RECORD];
+        }
+
+        @Override
+        public synchronized Cake getRecord(int recordNumber) {
+            Cake record = mRecords[recordNumber];
+            if (record == null) {
+                int fields = recordNumber * FIELDS_PER_RECORD;
+                record = new Cake();
+                record.setTitle(getString(mRecordFields[fields]));
+                record.setDescription(getString(mRecordFields[fields + 1]));
+                record.setImage(getString(mRecordFields[fields + 2]));
+                mRecords[recordNumber] = record;
+            }
+            return record;
+        }
+
+        private String getString(int stringNumber) {
+            if (stringNumber == NO_STRING) {
+                return null;
+            }
+            String value = mStrings[stringNumber];
+            if (value == null) {
+                int offset = mStringOffsets[stringNumber];
+                if (!isIntact(offset, 4)) {
+                    return null;
+                }
+                int length = mStringData.getInt(offset);
+                if (length < 0 || length > mStringData.limit() - offset - 4 || !isIntact(offset + 4, length)) {
+                    return null;
+                }
+                byte[] bytes = new byte[length];
+                ByteBuffer view = mStringData.duplicate();
+                view.position(offset + 4);
+                view.get(bytes);
+                value = new String(bytes, UTF_8);
+                // Strings shared between cakes stay shared once decoded
+                mStrings[stringNumber] = value;
+            }
+            return value;
+        }
+
+        // Checks the blocks holding the given bytes of string data, each only the first time it is read
+        private boolean isIntact(int start, int length) {
+            if (length == 0) {
+                return true;
+            }
+            int lastBlock = (start + length - 1) / STRING_BLOCK_BYTES;
+            for (int block = start / STRING_BLOCK_BYTES; block <= lastBlock; block++) {
+                if (!mCheckedBlocks.get(block)) {
+                    ByteBuffer blockData = mStringData.duplicate();
+                    blockData.position(block * STRING_BLOCK_BYTES);
+                    blockData.limit(Math.min(blockData.position() + STRING_BLOCK_BYTES, mStringData.limit()));
+                    if (checksum(blockData) != mBlockCrcs[block]) {
+                        mDamagedBlocks.set(block);
+                    }
+                    mCheckedBlocks.set(block);
+                }
+                if (mDamagedBlocks.get(block)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.List;
+
+/**
+ * SQLite backed store of the last cakes downloaded, so the list can be shown
+ * straight from disk on launch and while there is no network connection.
+ * <p/>
+ * Must only be used off the main thread.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class CakeStore {
+
+    private static final String DATABASE_NAME = "cakes.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_CAKES = "cakes";
+    private static final String COLUMN_POSITION = "position";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_DESCRIPTION = "description";
+    private static final String COLUMN_IMAGE = "image";
+
+    private static CakeStore sInstance;
+
+    private final DatabaseHelper mDatabaseHelper;
+
+    private CakeStore(Context context) {
+        mDatabaseHelper = new DatabaseHelper(context);
+    }
+
+    // One helper for the whole process so every caller shares the same connection
+    static synchronized CakeStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CakeStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    // Returns the stored cakes in feed order, empty if nothing has been stored yet
+    CakeCatalog loadCakes() {
+        CakeCatalog.Builder listOfCakes = new CakeCatalog.Builder();
+        SQLiteDatabase database = mDatabaseHelper.getReadableDatabase();
+        Cursor cursor = database.query(TABLE_CAKES,
+                new String[]{COLUMN_TITLE, COLUMN_DESCRIPTION, COLUMN_IMAGE},
+                null, null, null, null, COLUMN_POSITION);
+        try {
+            while (cursor.moveToNext()) {
+                Cake cakeItem = new Cake();
+                cakeItem.setTitle(cursor.getString(0));
+                cakeItem.setDescription(cursor.getString(1));
+                cakeItem.setImage(cursor.getString(2));
+                listOfCakes.add(cakeItem);
+            }
+        } finally {
+            cursor.close();
+        }
+        return listOfCakes.build();
+    }
+
+    /**
+     * Replaces the stored cakes with the latest feed in a single transaction,
+     * so a reader never sees a mix of the old and new feed.
+     */
+    void replaceCakes(List<Cake> listOfCakes) {
+        SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.delete(TABLE_CAKES, null, null);
+
+            SQLiteStatement insert = database.compileStatement("INSERT INTO " + TABLE_CAKES + " ("
+                    + COLUMN_POSITION + ", " + COLUMN_TITLE + ", " + COLUMN_DESCRIPTION + ", " + COLUMN_IMAGE
+                    + ") VALUES (?, ?, ?, ?)");
+            try {
+                for (int position = 0; position < listOfCakes.size(); position++) {
+                    Cake cake = listOfCakes.get(position);
+                    insert.bindLong(1, position);
+                    bindString(insert, 2, cake.getTitle());
+                    bindString(insert, 3, cake.getDescription());
+                    bindString(insert, 4, cake.getImage());
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_CAKES + " ("
+                    + COLUMN_POSITION + " INTEGER PRIMARY KEY, "
+                    + COLUMN_TITLE + " TEXT, "
+                    + COLUMN_DESCRIPTION + " TEXT, "
+                    + COLUMN_IMAGE + " TEXT)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // The table only caches the feed, so it is simply rebuilt
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_CAKES);
+            onCreate(db);
+        }
+    }
+}
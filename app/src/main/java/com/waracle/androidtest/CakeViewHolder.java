@@ -15,6 +15,7 @@
  */
 package com.waracle.androidtest;
 
+import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -22,13 +23,14 @@ import android.widget.TextView;
 /**
  * ViewHolder to represent row of articles being recycled
  */
-public class CakeViewHolder {
+public class CakeViewHolder extends RecyclerView.ViewHolder {
 
     private final TextView txtTitle;
     private final TextView txtDescription;
     private final ImageView imgImage;
 
     CakeViewHolder(View view) {
+        super(view);
         // Use the View holder so we only call findViewById once.
         txtTitle = (TextView) view.findViewById(R.id.txt_cake_title);
         txtDescription = (TextView) view.findViewById(R.id.txt_cake_description);
@@ -15,205 +15,485 @@
  */
 package com.waracle.androidtest;
 
-import android.app.Activity;
-import android.os.AsyncTask;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Asynchronously loading Cake information from the Waracle API
  * <p/>
- * Class Description
+ * Runs on the {@link TaskScheduler} feed pool rather than the process wide AsyncTask
+ * executor, so it never waits behind unrelated work. Started and owned by {@link CakeRepository},
+ * which passes the results on to whichever UI is showing.
  *
  * @author michaelakakpo
  * @version 1/10/15.
  */
-class DownloadCakesTask extends AsyncTask<Void, Void, List<Cake>> {
+class DownloadCakesTask implements Runnable {
 
     private final String TAG = DownloadCakesTask.class.getSimpleName();
-    private Activity mActivity;
+    private static final String SNAPSHOT_FILE = "cakes.snapshot";
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private TaskScheduler.TaskHandle mTaskHandle;
+
+    // Told about the cakes on the main thread
+    private final CakeRepository.Listener mListener;
+    private final FeedCache mFeedCache;
+    private final CakeStore mCakeStore;
+    // Decides whether a stored feed is worth checking for changes on the current connection
+    private final LoadingPolicy mLoadingPolicy;
+    // Copy of the stored cakes that can be mapped straight into memory, far quicker to read than the database
+    private final File mSnapshotFile;
+
+    // False when there is no connection, so only the stored cakes are loaded
+    private final boolean mFetchFromNetwork;
+    /* True when the cakes are already shown and the user asked for them to be checked, so they
+    stay shown until the feed is in and are never swapped for fewer. */
+    private final boolean mRefresh;
+
+    // Feeds the cakes are merged from, in the order they are listed, and how long each may take
+    private final List<URL> mFeedUrls;
+    private final long mSourceTimeoutMillis;
+
+    // How many parsed cakes are added to the list per main thread post, and how long that may take
+    private final int mBatchSize;
+    private final long mBatchBudgetMillis;
+    // Set when there was nothing stored to show, so cakes are shown as they are parsed
+    private volatile CakeBatchDispatcher mDispatcher;
+    // The cakes shown so far while streaming, main thread only
+    private CakeCatalog.Builder mStreamedCakes;
+
+    // Whether the whole feed was read, so the cakes shown are known to be current
+    private volatile boolean mFeedComplete;
+    // Why the feed couldn't be read, null if it was or the network wasn't tried
+    private volatile IOException mFailure;
+
+    public DownloadCakesTask(Context context, FeedCache feedCache, List<URL> feedUrls, boolean fetchFromNetwork,
+                             boolean refresh, CakeRepository.Listener listener) {
+        mListener = listener;
+        mFeedCache = feedCache;
+        mFeedUrls = feedUrls;
+        mCakeStore = CakeStore.getInstance(context);
+        mSnapshotFile = new File(context.getCacheDir(), SNAPSHOT_FILE);
+        mLoadingPolicy = LoadingPolicy.getInstance(context);
+        mFetchFromNetwork = fetchFromNetwork;
+        mRefresh = refresh;
+        mBatchSize = context.getResources().getInteger(R.integer.feed_batch_size);
+        mBatchBudgetMillis = context.getResources().getInteger(R.integer.feed_batch_budget_millis);
+        mSourceTimeoutMillis = context.getResources().getInteger(R.integer.feed_source_timeout_millis);
+    }
 
-    // Constructor to allow task to be called with fresh activity instance
-    public DownloadCakesTask(Activity activity) {
-        onAttach(activity);
+    boolean isRefresh() {
+        return mRefresh;
     }
 
-    // Attaching and the task to the parent activity
-    public void onAttach(Activity activity) {
-        this.mActivity = activity;
+    boolean isFeedComplete() {
+        return mFeedComplete;
     }
 
-    // Detaching the parent activity
-    public void onDetach() {
-        this.mActivity = null;
+    IOException getFailure() {
+        return mFailure;
     }
 
-    @Override
-    protected List<Cake> doInBackground(Void... urls) {
-        Log.d(TAG, "doInBackground");
+    // Queues the download on the feed pool, ahead of any background work
+    public void execute() {
+        mTaskHandle = TaskScheduler.getInstance().submit(TaskScheduler.Pool.FEED_FETCH,
+                TaskScheduler.Priority.VISIBLE, this);
+    }
 
-        /* These two need to be declared outside the try/catch
-        so that they can be closed in the finally block. */
+    // Drops the download if it hasn't started yet
+    public void cancel() {
+        if (mTaskHandle != null) {
+            mTaskHandle.cancel();
+        }
+    }
 
-        // Http Connection
-        HttpURLConnection connection = null;
-        // Buffer for reading InputStream from response
-        BufferedReader bufferedReader = null;
-        // InputStream
-        InputStream inputStream = null;
-        // The JSON response from the server is stored as a raw JSON string.
-        String cakeResponseString = null;
+    @Override
+    public void run() {
+        List<Cake> result = null;
+        try {
+            result = doInBackground();
+        } finally {
+            // Even a load that threw has to finish, or the repository would join it forever
+            deliver(result);
+        }
+    }
 
-        // List of Artists after parsing the JSON response
-        List<Cake> listOfCakes = new ArrayList<>();
+    private void deliver(final List<Cake> result) {
+        if (mDispatcher != null) {
+            // Every parsed cake has already been appended, so the list is current once the last batch is in
+            mDispatcher.finish(new Runnable() {
+                @Override
+                public void run() {
+                    onPostExecute(null);
+                }
+            });
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onPostExecute(result);
+            }
+        });
+    }
 
-        try {
+    // Hands cakes to the main thread while the download carries on
+    private void publishProgress(final List<Cake> cakes) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onProgressUpdate(cakes);
+            }
+        });
+    }
 
-            // BASE URL to append any further query params etc onto
-            final String CAKES_BASE_URL = "https://gist.githubusercontent.com/hart88/198f29ec5114a3ec3460/raw/8dd19a88f9b8d24c23d9960f3300d0c917a4f07c/cake.json";
+    private List<Cake> doInBackground() {
+        Log.d(TAG, "doInBackground");
 
-            // Main Url the connection will be opened on
-            URL cakesURL = new URL(CAKES_BASE_URL);
+        // Show whatever was stored last time straight away, whatever the network is doing
+        List<Cake> storedCakes = loadStoredCakes();
+        if (!storedCakes.isEmpty() && !mRefresh) {
+            publishProgress(storedCakes);
+        }
+        // A refresh leaves the cakes already on screen in place until the new ones are in
+        boolean cakesShown = mRefresh || !storedCakes.isEmpty();
 
-            Log.d("Cakes URL: ", cakesURL.toString());
+        if (!mFetchFromNetwork || mFeedUrls.isEmpty()) {
+            return null;
+        }
 
-            // Create the request and open the connection on the url.
-            connection = (HttpURLConnection) cakesURL.openConnection();
-            connection.setRequestMethod("GET");
-            connection.connect();
+        /* With nothing stored the list would stay empty until the whole feed is in, so fill it as it
+        arrives. Only a single feed can be shown as it is parsed, several are shown as each one completes. */
+        if (!cakesShown && mFeedUrls.size() == 1) {
+            mDispatcher = new CakeBatchDispatcher(mMainHandler, mBatchSize, mBatchBudgetMillis,
+                    new CakeBatchDispatcher.Sink() {
+                        private boolean mFirstBatch = true;
+
+                        @Override
+                        public void onCakes(List<Cake> batch) {
+                            onBatchParsed(batch, mFirstBatch);
+                            mFirstBatch = false;
+                        }
+                    });
+        }
 
-            // Check the stream of bytes from the JSON response is not empty
-            inputStream = connection.getInputStream();
-            StringBuilder stringBuilder = new StringBuilder();
-            if (inputStream == null) {
-                // No bytes to stream from the response
-                cakeResponseString = null;
-            }
+        /* Every feed is downloaded and parsed on its own thread, and reports here when it is done. They run
+        in a pool of their own, as this thread waiting on them would otherwise hold one of their threads. */
+        BlockingQueue<FeedSource> finishedSources = new LinkedBlockingQueue<>();
+        FeedSource[] sources = new FeedSource[mFeedUrls.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new FeedSource(mFeedUrls.get(i), mDispatcher, finishedSources);
+            TaskScheduler.getInstance().submit(TaskScheduler.Pool.FEED_SOURCE, TaskScheduler.Priority.VISIBLE,
+                    sources[i]);
+        }
 
-            // Convert the stream of bytes to a stream of characters {@link InputStreamReader}
-            if (inputStream != null) {
-                bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+        // Each feed has the same time from now, a slow one is given up on rather than holding up the rest
+        long deadline = SystemClock.uptimeMillis() + mSourceTimeoutMillis;
+        int pendingSources = sources.length;
+        while (pendingSources > 0) {
+            FeedSource source;
+            try {
+                source = finishedSources.poll(deadline - SystemClock.uptimeMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                source = null;
+            }
+            if (source == null) {
+                break;
+            }
+            source.mReceived = true;
+            pendingSources--;
+            if (!cakesShown && sources.length > 1 && pendingSources > 0) {
+                // Show the feeds that are in, in the order the feeds are listed rather than the order they arrived
+                publishProgress(merge(sources));
             }
+        }
 
-            // Read the characters from the response and build a string out of it
-            String line;
-            if (bufferedReader != null) {
-                while ((line = bufferedReader.readLine()) != null) {
-                    // Build a string out of the contents of the BufferedReader
-                    stringBuilder.append(line).append("\n");
+        // Only a feed read to the end from every source is allowed to replace the stored cakes
+        boolean feedComplete = true;
+        for (FeedSource source : sources) {
+            if (!source.mReceived) {
+                Log.e(TAG, "Timed out reading cakes from " + source.mUrl);
+                source.abandon();
+                feedComplete = false;
+                if (mFailure == null) {
+                    mFailure = new SocketTimeoutException("Timed out reading cakes from " + source.mUrl);
+                }
+            } else if (!source.mComplete) {
+                feedComplete = false;
+                if (mFailure == null) {
+                    mFailure = source.mError;
                 }
             }
+        }
 
-            // Check the String that is being built from reading the string
-            if (stringBuilder.length() == 0) {
-                // If the stream was empty then no need to parse the JSON response.
-                cakeResponseString = null;
+        /* Any cakes parsed before a connection dropped or a
+        response turned out to be malformed are still listed. */
+        CakeCatalog listOfCakes = merge(sources);
+        Log.d(TAG, listOfCakes.toString());
+
+        mFeedComplete = feedComplete;
+        if (feedComplete) {
+            if (!listOfCakes.equals(storedCakes)) {
+                // Dropped first so a stale snapshot is never read back if the process dies in between
+                mSnapshotFile.delete();
+                mCakeStore.replaceCakes(listOfCakes);
+                writeSnapshot(listOfCakes);
+            } else if (!mRefresh) {
+                // Nothing changed since the stored cakes were shown
+                return null;
             }
-            // Store the response after successfully reading it
-            cakeResponseString = stringBuilder.toString();
+            /* A refresh never showed the stored cakes, and what is on screen may differ from them, e.g.
+            after a restore or a partial load, so it always gets the feed and the list drops the rows
+            that didn't change. */
+            return listOfCakes;
+        }
 
-            Log.d(TAG, "Cake response: " + cakeResponseString);
-        } catch (IOException e) {
-            Log.e(TAG, "Error closing stream: " + e.getMessage());
-                /* If the connection didn't successfully retrieve the cake data,
-                there's no point in attempting to parse it. */
-            cakeResponseString = null;
-        } finally {
-            // Ensure that regardless of outcome, the connection is are disconnected
-            if (connection != null) {
-                connection.disconnect();
-            }
+        // Keep showing the cakes already shown rather than a partial feed
+        return cakesShown ? null : listOfCakes;
+    }
 
-            // Ensure that regardless of outcome, the InputStream is are closed
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+    /**
+     * Lists the cakes of every feed that is in, in the order the feeds are listed and each feed's
+     * own order. A cake an earlier feed already listed is left out, repeats within a feed are kept.
+     */
+    private static CakeCatalog merge(FeedSource[] sources) {
+        if (sources.length == 1) {
+            return sources[0].mReceived ? sources[0].mCakes.build() : CakeCatalog.empty();
+        }
+        CakeCatalog.Builder mergedCakes = new CakeCatalog.Builder();
+        Set<Cake> earlierCakes = new HashSet<>();
+        for (FeedSource source : sources) {
+            if (!source.mReceived) {
+                continue;
+            }
+            CakeCatalog sourceCakes = source.mCakes.build();
+            for (int i = 0; i < sourceCakes.size(); i++) {
+                Cake cake = sourceCakes.get(i);
+                if (!earlierCakes.contains(cake)) {
+                    mergedCakes.add(cake);
                 }
             }
+            earlierCakes.addAll(sourceCakes);
+        }
+        return mergedCakes.build();
+    }
 
-            // Ensure that regardless of outcome, the buffer is are closed
-            if (bufferedReader != null) {
-                try {
-                    bufferedReader.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "Error closing stream {}" + e.getMessage());
-                }
+    // The stored cakes, from the snapshot when there is one, otherwise from the database
+    private CakeCatalog loadStoredCakes() {
+        if (mSnapshotFile.exists()) {
+            try {
+                return CakeSnapshot.map(mSnapshotFile).getCakes();
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading cake snapshot: " + e.getMessage());
+                mSnapshotFile.delete();
             }
         }
-        // Attempt to parse Json response and extract required fields
+        CakeCatalog storedCakes = mCakeStore.loadCakes();
+        if (!storedCakes.isEmpty()) {
+            writeSnapshot(storedCakes);
+        }
+        return storedCakes;
+    }
+
+    private void writeSnapshot(CakeCatalog cakes) {
         try {
-            listOfCakes = parseArticleResponseData(cakeResponseString);
-        } catch (JSONException e1) {
-            e1.printStackTrace();
+            new CakeSnapshot(cakes, System.currentTimeMillis()).writeTo(mSnapshotFile);
+        } catch (IOException e) {
+            // The database still has the cakes, they are just slower to read
+            Log.e(TAG, "Error writing cake snapshot: " + e.getMessage());
+            mSnapshotFile.delete();
         }
+    }
 
-        return listOfCakes;
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing stream " + e.getMessage());
+            }
+        }
     }
 
-    // Parsing the Json String and extracting the required Article fields
-    public List<Cake> parseArticleResponseData(String response) throws JSONException {
+    // onProgressUpdate displays the stored cakes, or the feeds in so far, while the rest are still downloading.
+    private void onProgressUpdate(List<Cake> cakes) {
+        Log.d(TAG, "onProgressUpdate()");
+        mListener.onCakesLoaded(cakes);
+    }
 
-        // JSON objects that need to be extracted form the JSON response
-        final String CAKE_TITLE = "title";
-        final String CAKE_DESCRIPTION = "desc";
-        final String CAKE_IMAGE = "image";
+    // onBatchParsed shows the cakes parsed so far, replacing whatever was listed before the first batch.
+    private void onBatchParsed(List<Cake> batch, boolean firstBatch) {
+        if (firstBatch) {
+            mStreamedCakes = new CakeCatalog.Builder();
+            mListener.onCakesLoaded(mStreamedCakes.addAll(batch).build());
+        } else {
+            mListener.onCakesAppended(mStreamedCakes.addAll(batch).build());
+        }
+    }
 
-        // List of cakes
-        List<Cake> listOfCakes = new ArrayList<>();
+    // onPostExecute displays the results of loading the cakes, null if the shown cakes are current.
+    private void onPostExecute(List<Cake> result) {
+        Log.d(TAG, "onPostUpdate()");
+        if (result != null) {
+            mListener.onCakesLoaded(result);
+        }
+        mListener.onLoadFinished();
+    }
 
-        // response string is converted into an object so it can be traversed to extract individual objects
-        JSONArray cakeItems = new JSONArray(response);
+    /**
+     * One feed, downloaded and parsed on its own thread of the feed source pool.
+     */
+    private class FeedSource implements Runnable {
 
-        for (int currentCake = 0; currentCake < cakeItems.length(); currentCake++) {
+        private final URL mUrl;
+        // Set when this is the only feed and its cakes are shown as they are parsed
+        private final CakeBatchDispatcher mSourceDispatcher;
+        private final BlockingQueue<FeedSource> mFinishedSources;
 
-            Cake cakeItem = new Cake();
+        // Written by the thread reading the feed, only read once it has reported finishing
+        private final CakeCatalog.Builder mCakes = new CakeCatalog.Builder();
+        private boolean mComplete;
+        private IOException mError;
 
-            // retrieve relevant artist fields
-            JSONObject currentCakeItem = cakeItems.getJSONObject(currentCake);
-            String cakeTitle = currentCakeItem.getString(CAKE_TITLE);
-            String cakeDescription = currentCakeItem.getString(CAKE_DESCRIPTION);
-            String cakeImageURL = currentCakeItem.getString(CAKE_IMAGE);
+        // Set by the load once it has taken this off the finished queue
+        private boolean mReceived;
 
-            // store article info
-            cakeItem.setTitle(cakeTitle);
-            cakeItem.setImage(cakeImageURL);
-            cakeItem.setDescription(cakeDescription);
-            Log.i("Cake id", "" + cakeTitle);
-            Log.i("Cake description: ", cakeDescription);
-            Log.i("Cake image url", cakeImageURL);
+        // Closed to stop a feed that is taking too long
+        private volatile InputStream mInputStream;
+        private volatile boolean mAbandoned;
 
-            // create list of cakes
-            listOfCakes.add(cakeItem);
+        FeedSource(URL url, CakeBatchDispatcher dispatcher, BlockingQueue<FeedSource> finishedSources) {
+            this.mUrl = url;
+            this.mSourceDispatcher = dispatcher;
+            this.mFinishedSources = finishedSources;
+        }
 
+        @Override
+        public void run() {
+            /* These need to be declared outside the try/catch
+            so that they can be closed in the finally block. */
+
+            // InputStream of the feed, from the network or the on-disk cache
+            InputStream inputStream = null;
+            // Stream of characters decoded from the response as it arrives
+            Reader responseReader = null;
+
+            final Metrics metrics = Metrics.getInstance();
+            final long downloadStart = Metrics.now();
+
+            try {
+                Log.d("Cakes URL: ", mUrl.toString());
+
+                // Served from disk when fresh or unchanged, otherwise downloaded and cached as it is read
+                // A refresh always asks, the user wants to know whether anything changed
+                inputStream = mRefresh ? mFeedCache.revalidate(mUrl)
+                        : mFeedCache.open(mUrl, mLoadingPolicy.isFeedRevalidationAllowed());
+                mInputStream = inputStream;
+                if (mAbandoned) {
+                    throw new InterruptedIOException("Gave up on " + mUrl);
+                }
+
+                // Convert the stream of bytes to a stream of characters {@link InputStreamReader}
+                // Parsing happens as the feed arrives, so the time spent waiting on it is taken off the parse
+                TimedReader timedReader = new TimedReader(new InputStreamReader(inputStream, "UTF-8"));
+                responseReader = timedReader;
+
+                // Parse the cakes straight off the stream rather than buffering the whole response
+                int cakeCount = CakeFeedParser.parse(responseReader, new CakeFeedParser.Listener() {
+                    @Override
+                    public void onCake(Cake cake) {
+                        Cake sharedCake = mCakes.add(cake);
+                        if (metrics.shouldTrace()) {
+                            metrics.trace("Cake " + mCakes.size() + " of " + mUrl + " parsed after "
+                                    + TimeUnit.NANOSECONDS.toMillis(Metrics.now() - downloadStart) + "ms"
+                                    + (sharedCake != cake ? ", a repeat" : ""));
+                        }
+                        if (mSourceDispatcher != null) {
+                            mSourceDispatcher.onCake(sharedCake);
+                        }
+                    }
+                });
+                Log.d(TAG, "# of cakes " + cakeCount + " from " + mUrl);
+                mComplete = true;
+
+                long downloadNanos = System.nanoTime() - downloadStart;
+                metrics.recordNanos(Metrics.Timer.FEED_DOWNLOAD, downloadNanos);
+                metrics.recordNanos(Metrics.Timer.FEED_PARSE, downloadNanos - timedReader.getReadNanos());
+            } catch (IOException e) {
+                if (!mAbandoned) {
+                    Log.e(TAG, "Error reading cakes from " + mUrl + ": " + e.getMessage());
+                }
+                mError = e;
+            } finally {
+                // Ensure that regardless of outcome, the reader and the InputStream (and connection) beneath it are closed
+                closeQuietly(responseReader);
+                closeQuietly(inputStream);
+                mFinishedSources.add(this);
+            }
         }
-        Log.d("Cakes: ", "# of cakes " + listOfCakes.size());
-        return listOfCakes;
-    }
 
-    // onPostExecute displays the results of the AsyncTask loading the cakes.
-    @Override
-    protected void onPostExecute(List<Cake> result) {
-        Log.d(TAG, "onPostUpdate()");
-        if (mActivity != null) {
-            // If the activity is null don't bother updating, else update UI
-            ((MainActivity) mActivity).updateCakesList(result);
+        // Gives up on the feed, closing its connection so the thread reading it stops too
+        void abandon() {
+            mAbandoned = true;
+            closeQuietly(mInputStream);
         }
     }
 
+    /**
+     * Adds up the time spent waiting for characters, i.e. for the feed to arrive.
+     */
+    private static class TimedReader extends FilterReader {
 
+        private long mReadNanos;
+
+        TimedReader(Reader in) {
+            super(in);
+        }
 
+        long getReadNanos() {
+            return mReadNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                mReadNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(buffer, offset, length);
+            } finally {
+                mReadNanos += System.nanoTime() - start;
+            }
+        }
+    }
 }
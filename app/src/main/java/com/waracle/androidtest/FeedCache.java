@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Properties;
+
+/**
+ * On-disk cache for the cake feed response.
+ * <p/>
+ * A copy younger than the max-age is served without touching the network, an older copy is
+ * revalidated with If-None-Match/If-Modified-Since and served again on a 304, and a fresh 200
+ * response is written to disk while it is being read so it is never buffered in memory.
+ * Each feed url is cached in its own pair of files, so several feeds can share one directory.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class FeedCache {
+
+    private static final String FILE_PREFIX = "feed-";
+    private static final String BODY_SUFFIX = ".json";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Keys of the metadata stored alongside the body
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_FETCHED_AT = "fetchedAt";
+
+    private final File mDirectory;
+    private final long mMaxAgeMillis;
+
+    /**
+     * @param directory    where the body and its validators are kept, usually Context#getCacheDir()
+     * @param maxAgeMillis how long a stored copy is served without revalidating, 0 to always revalidate
+     */
+    FeedCache(File directory, long maxAgeMillis) {
+        this.mDirectory = directory;
+        this.mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Opens the feed at the url, from the cache when it is fresh or the server reports it unchanged.
+     * The caller must close the returned stream, which also releases the connection.
+     */
+    InputStream open(URL url) throws IOException {
+        return open(url, true);
+    }
+
+    /**
+     * As {@link #open(URL)}, but when revalidation isn't allowed, e.g. on a slow connection, a
+     * stored copy is served however old it is and the network is only used if there isn't one.
+     */
+    InputStream open(URL url, boolean allowRevalidation) throws IOException {
+        return open(url, allowRevalidation, false);
+    }
+
+    /**
+     * As {@link #open(URL)}, but the server is asked whether the stored copy changed however fresh
+     * it is, e.g. for a refresh the user asked for.
+     */
+    InputStream revalidate(URL url) throws IOException {
+        return open(url, true, true);
+    }
+
+    private InputStream open(URL url, boolean allowRevalidation, boolean ignoreMaxAge) throws IOException {
+        File bodyFile = bodyFile(url);
+        Properties meta = readMeta(url);
+
+        // Still fresh, or not worth checking, so skip the network entirely
+        if (meta != null && ((isFresh(meta) && !ignoreMaxAge) || !allowRevalidation)) {
+            Metrics.getInstance().increment(Metrics.Counter.FEED_CACHE_HIT);
+            return new FileInputStream(bodyFile);
+        }
+
+        HttpURLConnection connection = NetworkUtil.openConnection(url);
+        connection.setRequestMethod("GET");
+        if (meta != null) {
+            // Ask the server to only send the body if it changed since the stored copy
+            String eTag = meta.getProperty(KEY_ETAG);
+            String lastModified = meta.getProperty(KEY_LAST_MODIFIED);
+            if (eTag != null) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+        }
+
+        try {
+            Metrics metrics = Metrics.getInstance();
+            long connectStart = Metrics.now();
+            connection.connect();
+            metrics.record(Metrics.Timer.FEED_CONNECT, connectStart);
+            int responseCode = connection.getResponseCode();
+            metrics.record(Metrics.Timer.FEED_FIRST_BYTE, connectStart);
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && meta != null) {
+                // Unchanged on the server, restart the max-age from now and serve the stored copy
+                metrics.increment(Metrics.Counter.FEED_CACHE_HIT);
+                connection.disconnect();
+                meta.setProperty(KEY_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+                writeMeta(url, meta);
+                return new FileInputStream(bodyFile);
+            }
+
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(responseCode, "Unexpected response code " + responseCode + " for " + url);
+            }
+
+            metrics.increment(Metrics.Counter.FEED_CACHE_MISS);
+            Properties newMeta = new Properties();
+            newMeta.setProperty(KEY_URL, url.toString());
+            newMeta.setProperty(KEY_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+            String eTag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            if (eTag != null) {
+                newMeta.setProperty(KEY_ETAG, eTag);
+            }
+            if (lastModified != null) {
+                newMeta.setProperty(KEY_LAST_MODIFIED, lastModified);
+            }
+
+            return new CachingInputStream(connection, url, newMeta);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    // Drops the stored copy of the feed so the next open goes to the network unconditionally
+    void clear(URL url) {
+        deleteIfExists(bodyFile(url));
+        deleteIfExists(metaFile(url));
+    }
+
+    private File bodyFile(URL url) {
+        return new File(mDirectory, fileName(url) + BODY_SUFFIX);
+    }
+
+    private File metaFile(URL url) {
+        return new File(mDirectory, fileName(url) + META_SUFFIX);
+    }
+
+    // Urls sharing a hash overwrite each other's copy, the url kept in the metadata tells them apart
+    private static String fileName(URL url) {
+        return FILE_PREFIX + Integer.toHexString(url.toString().hashCode());
+    }
+
+    private boolean isFresh(Properties meta) {
+        long fetchedAt = parseLong(meta.getProperty(KEY_FETCHED_AT));
+        long age = System.currentTimeMillis() - fetchedAt;
+        return age >= 0 && age < mMaxAgeMillis;
+    }
+
+    // Returns the stored metadata, or null if nothing usable is cached for the url
+    private Properties readMeta(URL url) {
+        File metaFile = metaFile(url);
+        if (!metaFile.exists() || !bodyFile(url).exists()) {
+            return null;
+        }
+
+        Properties meta = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(metaFile);
+            meta.load(inputStream);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+        return url.toString().equals(meta.getProperty(KEY_URL)) ? meta : null;
+    }
+
+    private void writeMeta(URL url, Properties meta) throws IOException {
+        File metaFile = metaFile(url);
+        File tempFile = new File(metaFile.getPath() + TEMP_SUFFIX);
+        OutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            meta.store(outputStream, null);
+        } finally {
+            outputStream.close();
+        }
+        commit(tempFile, metaFile);
+    }
+
+    // Swaps a fully written temp file into place so readers never see a half written copy
+    private static void commit(File tempFile, File target) throws IOException {
+        if (!tempFile.renameTo(target)) {
+            deleteIfExists(tempFile);
+            throw new IOException("Unable to commit " + target);
+        }
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException ignored) {
+                // Nothing useful can be done about a failed close
+            }
+        }
+    }
+
+    /**
+     * Copies the response to a temp file as it is read, committing it to the cache only
+     * once the whole body has been read so a dropped connection never leaves a truncated copy.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final HttpURLConnection mConnection;
+        private final URL mUrl;
+        private final Properties mMeta;
+        private final File mTempFile;
+        private OutputStream mCacheOutput;
+        private boolean mReachedEnd;
+
+        CachingInputStream(HttpURLConnection connection, URL url, Properties meta) throws IOException {
+            super(connection.getInputStream());
+            this.mConnection = connection;
+            this.mUrl = url;
+            this.mMeta = meta;
+            this.mTempFile = new File(bodyFile(url).getPath() + TEMP_SUFFIX);
+            try {
+                mCacheOutput = new FileOutputStream(mTempFile);
+            } catch (IOException e) {
+                // Not being able to cache shouldn't stop the feed from loading
+                mCacheOutput = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                mReachedEnd = true;
+            } else {
+                Metrics.getInstance().add(Metrics.Counter.FEED_BYTES, 1);
+                writeToCache(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read == -1) {
+                mReachedEnd = true;
+            } else {
+                Metrics.getInstance().add(Metrics.Counter.FEED_BYTES, read);
+                writeToCache(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes would leave a hole in the cached copy
+            abandonCache();
+            return super.skip(count);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                mConnection.disconnect();
+                if (mCacheOutput != null) {
+                    try {
+                        mCacheOutput.close();
+                        if (mReachedEnd) {
+                            /* The old validators go first, so dying before the new ones are written
+                            leaves a body with no metadata, fetched again in full, rather than a new
+                            body a conditional GET would vouch for with the old ones. */
+                            deleteIfExists(metaFile(mUrl));
+                            commit(mTempFile, bodyFile(mUrl));
+                            writeMeta(mUrl, mMeta);
+                        } else {
+                            deleteIfExists(mTempFile);
+                        }
+                    } catch (IOException e) {
+                        // Leave the cache empty rather than risk a body that doesn't match its metadata
+                        clear(mUrl);
+                    }
+                    mCacheOutput = null;
+                }
+            }
+        }
+
+        private void writeToCache(byte[] buffer, int offset, int count) {
+            if (mCacheOutput == null) {
+                return;
+            }
+            try {
+                mCacheOutput.write(buffer, offset, count);
+            } catch (IOException e) {
+                abandonCache();
+            }
+        }
+
+        private void abandonCache() {
+            if (mCacheOutput != null) {
+                try {
+                    mCacheOutput.close();
+                } catch (IOException ignored) {
+                    // Being discarded anyway
+                }
+                mCacheOutput = null;
+                deleteIfExists(mTempFile);
+            }
+        }
+    }
+}
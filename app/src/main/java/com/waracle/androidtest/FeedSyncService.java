@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the cake feed and warms the thumbnails of the first screens in the background, so
+ * the app has everything on disk by the time it is opened.
+ * <p/>
+ * Only runs on an unmetered network while the device is charging and idle. The feed is fetched
+ * through {@link CakeRepository}, so a sync that starts while the app is loading joins that load
+ * rather than downloading the feed again. Each sync logs how long it took and how many bytes it
+ * downloaded. Needs JobScheduler, so it is disabled before Lollipop and must not be touched there.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class FeedSyncService extends JobService {
+
+    private static final String TAG = FeedSyncService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+    private static final long SYNC_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    // About the first couple of screens of rows
+    private static final int WARM_ROWS = 30;
+    // Thumbnails still loading after this long are left for the next sync
+    private static final long WARM_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final long WARM_POLL_MILLIS = 500;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // The sync running, null when idle
+    private Sync mSync;
+
+    /**
+     * Schedules the periodic sync, unless it is scheduled already, which would restart its period.
+     */
+    static void schedule(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, FeedSyncService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(SYNC_INTERVAL_MILLIS)
+                .setPersisted(true)
+                .build();
+        if (jobScheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(TAG, "Unable to schedule the background sync");
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Log.d(TAG, "onStartJob()");
+        mSync = new Sync(params);
+        mSync.start();
+        // Carries on in the background, jobFinished is called when it is done
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        Log.d(TAG, "onStopJob()");
+        if (mSync != null) {
+            mSync.stop();
+            mSync = null;
+        }
+        // Conditions no longer hold, so try again next time they do
+        return true;
+    }
+
+    /**
+     * One run of the job: the feed, then the thumbnails of its first rows.
+     */
+    private class Sync implements CakeRepository.SyncListener, Runnable {
+
+        private final JobParameters mParams;
+        private final Metrics mMetrics = Metrics.getInstance();
+        private final long mStartNanos = Metrics.now();
+        // Counted from here, so the bytes reported are roughly those this sync downloaded
+        private final long mFeedBytesAtStart = mMetrics.getCount(Metrics.Counter.FEED_BYTES);
+        private final long mImageBytesAtStart = mMetrics.getCount(Metrics.Counter.IMAGE_BYTES);
+
+        private final List<ImageLoader.Prefetch> mPrefetches = new ArrayList<>();
+        private long mWarmDeadline;
+        private boolean mStopped;
+
+        Sync(JobParameters params) {
+            this.mParams = params;
+        }
+
+        void start() {
+            CakeRepository.getInstance(FeedSyncService.this).sync(this);
+        }
+
+        @Override
+        public void onSyncFinished(List<Cake> cakes) {
+            if (mStopped) {
+                return;
+            }
+            ImageLoader imageLoader = ImageLoader.getInstance(FeedSyncService.this);
+            Set<String> urls = new HashSet<>();
+            for (int i = 0; i < Math.min(WARM_ROWS, cakes.size()); i++) {
+                String url = cakes.get(i).getImage();
+                if (urls.add(url)) {
+                    ImageLoader.Prefetch prefetch = imageLoader.prefetch(url);
+                    if (prefetch != null) {
+                        mPrefetches.add(prefetch);
+                    }
+                }
+            }
+            mWarmDeadline = SystemClock.uptimeMillis() + WARM_TIMEOUT_MILLIS;
+            run();
+        }
+
+        // Checks on the thumbnails until they are all in or the deadline passes
+        @Override
+        public void run() {
+            Iterator<ImageLoader.Prefetch> iterator = mPrefetches.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isDone()) {
+                    iterator.remove();
+                }
+            }
+            if (!mPrefetches.isEmpty() && SystemClock.uptimeMillis() < mWarmDeadline) {
+                mMainHandler.postDelayed(this, WARM_POLL_MILLIS);
+                return;
+            }
+            cancelPrefetches();
+
+            mMetrics.record(Metrics.Timer.BACKGROUND_SYNC, mStartNanos);
+            Log.d(TAG, "Sync took " + TimeUnit.NANOSECONDS.toMillis(Metrics.now() - mStartNanos) + "ms, downloaded "
+                    + (mMetrics.getCount(Metrics.Counter.FEED_BYTES) - mFeedBytesAtStart) + " feed bytes and "
+                    + (mMetrics.getCount(Metrics.Counter.IMAGE_BYTES) - mImageBytesAtStart) + " image bytes");
+            if (mSync == this) {
+                mSync = null;
+            }
+            jobFinished(mParams, false);
+        }
+
+        void stop() {
+            mStopped = true;
+            mMainHandler.removeCallbacks(this);
+            cancelPrefetches();
+        }
+
+        private void cancelPrefetches() {
+            for (ImageLoader.Prefetch prefetch : mPrefetches) {
+                prefetch.cancel();
+            }
+            mPrefetches.clear();
+        }
+    }
+}
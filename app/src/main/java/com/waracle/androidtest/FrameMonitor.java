@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.os.Build;
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long each frame takes while the list is scrolling, and what the slow ones were spent on.
+ * <p/>
+ * A Choreographer callback notes the start of every frame, so the gap between two callbacks is
+ * how long the first frame took, dropped frames included. The durations go into the
+ * {@link Metrics.Timer#SCROLL_FRAME} histogram. Binding rows, laying out the list and setting
+ * images report the time they take, and a frame that missed a vsync is put down to whichever of them
+ * took longest in it, or to {@link Work#OTHER} if they account for less than half of it, e.g.
+ * drawing or garbage collection. Setting an image from the memory cache happens during a bind,
+ * so it is counted in both.
+ * <p/>
+ * Choreographer needs Jelly Bean, on older releases nothing is measured. Main thread only.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class FrameMonitor {
+
+    // Main thread work a slow frame can be put down to
+    enum Work {
+        BIND,
+        LAYOUT,
+        IMAGE_SET,
+        OTHER
+    }
+
+    // One frame at 60Hz
+    private static final long FRAME_BUDGET_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+    // Frame times follow vsync, so a frame this long missed at least one
+    private static final long SLOW_FRAME_NANOS = FRAME_BUDGET_NANOS * 3 / 2;
+
+    private static FrameMonitor sInstance;
+
+    private final Metrics mMetrics = Metrics.getInstance();
+
+    // Created on first start, only ever on Jelly Bean and later
+    private FrameTracker mFrameTracker;
+    private boolean mRunning;
+    // Start of the frame being measured, 0 until the first callback after starting
+    private long mFrameStartNanos;
+
+    // Time spent on each kind of work since the frame started
+    private final long[] mWorkNanos = new long[Work.values().length];
+    // Frames over budget, by the work they are put down to
+    private final int[] mSlowFrames = new int[Work.values().length];
+
+    private FrameMonitor() {
+    }
+
+    static synchronized FrameMonitor getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameMonitor();
+        }
+        return sInstance;
+    }
+
+    // Starts measuring frames, e.g. when the list starts scrolling
+    void start() {
+        if (mRunning || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        if (mFrameTracker == null) {
+            mFrameTracker = new FrameTracker();
+        }
+        mRunning = true;
+        mFrameStartNanos = 0;
+        mFrameTracker.post();
+    }
+
+    // Stops measuring, the frame in progress is left out as it ends with the scroll
+    void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mFrameTracker.remove();
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    // Adds the time since startNanos, taken from Metrics.now(), to the work done in this frame
+    void addWork(Work work, long startNanos) {
+        if (mRunning) {
+            mWorkNanos[work.ordinal()] += System.nanoTime() - startNanos;
+        }
+    }
+
+    // Roughly how long the given fraction of scrolling frames took at most, in milliseconds
+    float getFramePercentileMillis(double fraction) {
+        return mMetrics.getPercentileMicros(Metrics.Timer.SCROLL_FRAME, fraction) / 1000f;
+    }
+
+    long getFrameCount() {
+        return mMetrics.getCount(Metrics.Timer.SCROLL_FRAME);
+    }
+
+    int getSlowFrameCount(Work work) {
+        return mSlowFrames[work.ordinal()];
+    }
+
+    // One line summary for a debug overlay or a log
+    String describe() {
+        int slowFrames = 0;
+        for (int count : mSlowFrames) {
+            slowFrames += count;
+        }
+        return String.format("frames %d  p50 %.1fms  p90 %.1fms  p99 %.1fms\nslow %d: bind %d  layout %d  image %d  other %d",
+                getFrameCount(), getFramePercentileMillis(0.5), getFramePercentileMillis(0.9),
+                getFramePercentileMillis(0.99), slowFrames, getSlowFrameCount(Work.BIND),
+                getSlowFrameCount(Work.LAYOUT), getSlowFrameCount(Work.IMAGE_SET), getSlowFrameCount(Work.OTHER));
+    }
+
+    // Called at the start of every frame while running
+    private void onFrame(long frameTimeNanos) {
+        if (mFrameStartNanos != 0) {
+            long frameNanos = frameTimeNanos - mFrameStartNanos;
+            mMetrics.recordNanos(Metrics.Timer.SCROLL_FRAME, frameNanos);
+            if (frameNanos > SLOW_FRAME_NANOS) {
+                Work cause = attribute(frameNanos);
+                mSlowFrames[cause.ordinal()]++;
+                mMetrics.trace("Slow frame " + TimeUnit.NANOSECONDS.toMillis(frameNanos) + "ms, " + cause
+                        + " bind=" + TimeUnit.NANOSECONDS.toMicros(mWorkNanos[Work.BIND.ordinal()])
+                        + "us layout=" + TimeUnit.NANOSECONDS.toMicros(mWorkNanos[Work.LAYOUT.ordinal()])
+                        + "us image=" + TimeUnit.NANOSECONDS.toMicros(mWorkNanos[Work.IMAGE_SET.ordinal()]) + "us");
+            }
+        }
+        mFrameStartNanos = frameTimeNanos;
+        for (int i = 0; i < mWorkNanos.length; i++) {
+            mWorkNanos[i] = 0;
+        }
+    }
+
+    private Work attribute(long frameNanos) {
+        // Binds happen during layout, so only the layout time outside them is the layout's own
+        long bindNanos = mWorkNanos[Work.BIND.ordinal()];
+        long layoutNanos = Math.max(0, mWorkNanos[Work.LAYOUT.ordinal()] - bindNanos);
+        long imageNanos = mWorkNanos[Work.IMAGE_SET.ordinal()];
+
+        Work cause = Work.BIND;
+        long causeNanos = bindNanos;
+        if (layoutNanos > causeNanos) {
+            cause = Work.LAYOUT;
+            causeNanos = layoutNanos;
+        }
+        if (imageNanos > causeNanos) {
+            cause = Work.IMAGE_SET;
+        }
+        return bindNanos + layoutNanos + imageNanos < frameNanos / 2 ? Work.OTHER : cause;
+    }
+
+    /**
+     * The Choreographer callback, kept apart so older releases never load a class that refers to it.
+     */
+    private class FrameTracker implements Choreographer.FrameCallback {
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void remove() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            onFrame(frameTimeNanos);
+            // Callbacks only fire once, so ask for the next frame straight away
+            post();
+        }
+    }
+}
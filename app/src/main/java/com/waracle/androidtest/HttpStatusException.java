@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers a request with a status that has no body worth reading.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class HttpStatusException extends IOException {
+
+    private final int mStatusCode;
+
+    HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.mStatusCode = statusCode;
+    }
+
+    int getStatusCode() {
+        return mStatusCode;
+    }
+}
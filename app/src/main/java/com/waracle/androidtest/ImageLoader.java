@@ -0,0 +1,788 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the cake images into the rows of the list.
+ * <p/>
+ * Images are decoded on the {@link TaskScheduler} pools at the smallest power of two sample size that
+ * still fills the ImageView, kept in a byte bounded memory cache, and any request still
+ * running for a recycled row is cancelled as soon as the row is bound to another cake.
+ * <p/>
+ * A bitmap that has left the memory cache and is no longer shown by any row goes to the
+ * {@link BitmapPool} to be decoded into again, so steady state scrolling barely allocates.
+ * <p/>
+ * Each image is centre cropped to exactly the size of the ImageView and the re-encoded
+ * thumbnail kept in a {@link ThumbnailDiskCache}, so later launches never download or
+ * decode the full size image again.
+ * <p/>
+ * Both memory budgets come from the {@link MemoryGovernor}, which also has them trimmed when
+ * the system runs short. Only bitmaps on screen survive the harder trims, anything else is read
+ * back from the thumbnail cache when it is next shown.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class ImageLoader implements BitmapMemoryCache.OnBitmapRemovedListener, MemoryGovernor.Trimmable {
+
+    private static final String TAG = ImageLoader.class.getSimpleName();
+
+    // Room for a few thousand thumbnails at the row size
+    private static final long DISK_CACHE_BYTES = 10 * 1024 * 1024;
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    // Assumed load time before any image has been measured
+    private static final float INITIAL_LOAD_MILLIS = 200f;
+    // Weight of the latest load in the smoothed load time
+    private static final float LOAD_TIME_SMOOTHING = 0.2f;
+
+    // Failed downloads are tried a few more times, a second or so apart at first
+    private static final RetryPolicy DOWNLOAD_RETRY = new RetryPolicy(1000, 30 * 1000, 4);
+
+    private static ImageLoader sInstance;
+
+    private final BitmapMemoryCache mMemoryCache;
+    private final BitmapPool mBitmapPool;
+    private final ThumbnailDiskCache mDiskCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Used until an ImageView has been laid out or given a fixed size
+    private final int mDefaultSizePx;
+
+    // Scales thumbnails down and reports download speeds on slow or metered connections
+    private final LoadingPolicy mLoadingPolicy;
+
+    // Times each fetch and decode, and counts cache hits
+    private final Metrics mMetrics = Metrics.getInstance();
+
+    /* Bitmaps on screen (or on their way there) with the number of views showing each,
+    and those that left the memory cache while still on screen. Guarded by mDisplayLock. */
+    private final Object mDisplayLock = new Object();
+    private final Map<Bitmap, Integer> mDisplayCounts = new IdentityHashMap<>();
+    private final Set<Bitmap> mRemovedWhileDisplayed =
+            Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    // Requests not yet delivered by memory cache key, so a row can pick up a prefetch. Main thread only.
+    private final Map<String, ImageRequest> mInFlight = new HashMap<>();
+
+    // Requests waiting to download again after a failure. Main thread only.
+    private final Set<ImageRequest> mWaitingToRetry = new HashSet<>();
+
+    // Smoothed time to get a thumbnail from disk or the network, used to pace prefetching
+    private volatile float mAverageLoadMillis = INITIAL_LOAD_MILLIS;
+
+    private ImageLoader(Context context) {
+        // An eighth of the memory class is enough for several screens of thumbnails, half that again to reuse
+        MemoryGovernor memoryGovernor = MemoryGovernor.getInstance(context);
+        mMemoryCache = new BitmapMemoryCache(memoryGovernor.getCacheBudgetBytes(8), this);
+        mBitmapPool = new BitmapPool(memoryGovernor.getCacheBudgetBytes(16));
+        mDiskCache = new ThumbnailDiskCache(new File(context.getCacheDir(), DISK_CACHE_DIRECTORY), DISK_CACHE_BYTES);
+        mDefaultSizePx = context.getResources().getDimensionPixelSize(R.dimen.cake_image_size);
+        mLoadingPolicy = LoadingPolicy.getInstance(context);
+        memoryGovernor.register(this);
+    }
+
+    static synchronized ImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Displays the image at the url in the ImageView, replacing whatever it was last bound to.
+     * Must be called on the main thread.
+     */
+    void load(String url, ImageView imageView) {
+        cancel(imageView);
+
+        if (url == null) {
+            display(imageView, null);
+            return;
+        }
+
+        // Smaller thumbnails on slow or metered connections, scaled back up by the ImageView
+        float scale = mLoadingPolicy.getThumbnailScale();
+        int baseWidth = targetWidth(imageView);
+        int baseHeight = targetHeight(imageView);
+        String key = BitmapMemoryCache.key(url, ImageSizing.scaledSize(baseWidth, scale),
+                ImageSizing.scaledSize(baseHeight, scale));
+
+        Bitmap cachedBitmap = mMemoryCache.get(key);
+        if (cachedBitmap != null) {
+            mMetrics.increment(Metrics.Counter.MEMORY_CACHE_HIT);
+            retain(cachedBitmap);
+            display(imageView, cachedBitmap);
+            return;
+        }
+        mMetrics.increment(Metrics.Counter.MEMORY_CACHE_MISS);
+
+        // Clear the image left over from the cake this row was previously showing
+        display(imageView, null);
+
+        ImageRequest request = mInFlight.get(key);
+        if (request != null) {
+            // Already being prefetched or loaded for another row showing the same cake, wait on that too
+            request.attach(imageView);
+        } else {
+            request = submit(url, key, baseWidth, baseHeight, scale, imageView);
+        }
+        imageView.setTag(R.id.tag_image_request, request);
+    }
+
+    /**
+     * Warms the caches with the image at the size rows show it, without a view to put it in.
+     * Must be called on the main thread.
+     *
+     * @return a handle to cancel the prefetch with, or null if the image is already cached or loading
+     */
+    Prefetch prefetch(String url) {
+        if (url == null) {
+            return null;
+        }
+        float scale = mLoadingPolicy.getThumbnailScale();
+        int size = ImageSizing.scaledSize(mDefaultSizePx, scale);
+        String key = BitmapMemoryCache.key(url, size, size);
+        if (mInFlight.containsKey(key) || mMemoryCache.get(key) != null) {
+            return null;
+        }
+        return submit(url, key, mDefaultSizePx, mDefaultSizePx, scale, null);
+    }
+
+    // Stops any request still loading into the ImageView, unless another row is waiting on it too
+    void cancel(ImageView imageView) {
+        Object tag = imageView.getTag(R.id.tag_image_request);
+        if (tag instanceof ImageRequest) {
+            ((ImageRequest) tag).detach(imageView);
+        }
+        imageView.setTag(R.id.tag_image_request, null);
+    }
+
+    // Smoothed time a thumbnail takes to load, from disk or the network
+    float getAverageLoadMillis() {
+        return mAverageLoadMillis;
+    }
+
+    // Number of images that can be downloaded at the same time
+    int getConcurrency() {
+        return TaskScheduler.getInstance().getConcurrency(TaskScheduler.Pool.IMAGE_FETCH);
+    }
+
+    /**
+     * Retries every download waiting out a failure straight away, as the connection it failed on
+     * has been replaced. Must be called on the main thread.
+     */
+    void onNetworkAvailable() {
+        if (mWaitingToRetry.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "Retrying " + mWaitingToRetry.size() + " image downloads");
+        for (ImageRequest request : new ArrayList<>(mWaitingToRetry)) {
+            request.retryNow();
+        }
+    }
+
+    private ImageRequest submit(String url, String key, int baseWidth, int baseHeight, float scale,
+                                ImageView imageView) {
+        // Rows on screen go ahead of anything being loaded speculatively
+        TaskScheduler.Priority priority = imageView != null
+                ? TaskScheduler.Priority.VISIBLE : TaskScheduler.Priority.PREFETCH;
+        ImageRequest request = new ImageRequest(url, key, baseWidth, baseHeight, scale, imageView, priority);
+        mInFlight.put(key, request);
+        request.start();
+        return request;
+    }
+
+    private void recordLoadTime(long loadMillis) {
+        mAverageLoadMillis += (loadMillis - mAverageLoadMillis) * LOAD_TIME_SMOOTHING;
+    }
+
+    BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    @Override
+    public void onBitmapRemoved(Bitmap bitmap) {
+        synchronized (mDisplayLock) {
+            if (mDisplayCounts.containsKey(bitmap)) {
+                // Still on screen, so it is pooled when the last row showing it moves on
+                mRemovedWhileDisplayed.add(bitmap);
+            } else {
+                mBitmapPool.put(bitmap);
+            }
+        }
+    }
+
+    @Override
+    public void onTrim(MemoryGovernor.Tier tier) {
+        Log.d(TAG, "Trimming images to " + tier + ", " + mMemoryCache.size() + " cached bytes, " + mBitmapPool);
+        if (tier == MemoryGovernor.Tier.SHRINK) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+            mBitmapPool.trimToSize(mBitmapPool.getMaxSizeBytes() / 2);
+            return;
+        }
+        // Bitmaps still on screen stay with their rows and are pooled once they scroll off
+        mMemoryCache.evictAll();
+        mBitmapPool.clear();
+    }
+
+    // Sets the bitmap on the view, which takes over a reference already retained for it
+    private void display(ImageView imageView, Bitmap bitmap) {
+        long displayStart = Metrics.now();
+        Object previous = imageView.getTag(R.id.tag_displayed_bitmap);
+        imageView.setImageBitmap(bitmap);
+        FrameMonitor.getInstance().addWork(FrameMonitor.Work.IMAGE_SET, displayStart);
+        imageView.setTag(R.id.tag_displayed_bitmap, bitmap);
+        if (previous instanceof Bitmap) {
+            release((Bitmap) previous);
+        }
+    }
+
+    private void retain(Bitmap bitmap) {
+        synchronized (mDisplayLock) {
+            Integer count = mDisplayCounts.get(bitmap);
+            mDisplayCounts.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    private void release(Bitmap bitmap) {
+        synchronized (mDisplayLock) {
+            Integer count = mDisplayCounts.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mDisplayCounts.put(bitmap, count - 1);
+                return;
+            }
+            mDisplayCounts.remove(bitmap);
+            if (mRemovedWhileDisplayed.remove(bitmap)) {
+                mBitmapPool.put(bitmap);
+            }
+        }
+    }
+
+    private int targetWidth(ImageView imageView) {
+        int width = imageView.getWidth();
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if (width <= 0 && params != null) {
+            width = params.width;
+        }
+        return width > 0 ? width : mDefaultSizePx;
+    }
+
+    private int targetHeight(ImageView imageView) {
+        int height = imageView.getHeight();
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if (height <= 0 && params != null) {
+            height = params.height;
+        }
+        return height > 0 ? height : mDefaultSizePx;
+    }
+
+    // Decodes just the bounds first so the full size image is never held in memory
+    Bitmap decodeSampledBitmap(byte[] data, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inSampleSize = ImageSizing.calculateInSampleSize(options.outWidth, options.outHeight,
+                reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+
+        if (BitmapPool.isReuseSupported()) {
+            int width = ImageSizing.sampledSize(options.outWidth, options.inSampleSize);
+            int height = ImageSizing.sampledSize(options.outHeight, options.inSampleSize);
+            options.inMutable = true;
+            options.inBitmap = mBitmapPool.get(width, height, Bitmap.Config.ARGB_8888, options.inSampleSize);
+        }
+
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap didn't fit after all, hand it back and let the decoder allocate
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    // Centre crops the subsampled image to exactly the target size, as the row's ImageView would
+    private Bitmap createThumbnail(Bitmap source, int width, int height) {
+        if (source.getWidth() == width && source.getHeight() == height) {
+            return source;
+        }
+
+        Bitmap thumbnail = mBitmapPool.getExact(width, height, Bitmap.Config.ARGB_8888);
+        if (thumbnail == null) {
+            thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        } else {
+            thumbnail.eraseColor(Color.TRANSPARENT);
+        }
+
+        float scale = Math.max((float) width / source.getWidth(), (float) height / source.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((width - source.getWidth() * scale) / 2f, (height - source.getHeight() * scale) / 2f);
+        new Canvas(thumbnail).drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+
+        // The subsampled image was never shown or cached, so it can be reused straight away
+        mBitmapPool.put(source);
+        return thumbnail;
+    }
+
+    // Returns the thumbnail compressed for the disk cache, or null if it couldn't be compressed
+    private static byte[] encodeThumbnail(Bitmap thumbnail, boolean opaque) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        // JPEG unless the image needs its transparency
+        Bitmap.CompressFormat format = opaque ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.PNG;
+        return thumbnail.compress(format, THUMBNAIL_QUALITY, outputStream) ? outputStream.toByteArray() : null;
+    }
+
+    private void storeThumbnail(String diskKey, byte[] encoded) {
+        try {
+            mDiskCache.put(diskKey, encoded);
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing thumbnail cache: " + e.getMessage());
+        }
+    }
+
+    private void removeThumbnail(String diskKey) {
+        try {
+            mDiskCache.remove(diskKey);
+        } catch (IOException e) {
+            Log.w(TAG, "Error removing thumbnail: " + e.getMessage());
+        }
+    }
+
+    private static byte[] download(String url) throws IOException {
+        HttpURLConnection connection = NetworkUtil.openConnection(new URL(url));
+        InputStream inputStream = null;
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(responseCode, "Unexpected response code " + responseCode);
+            }
+            inputStream = connection.getInputStream();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Handle on an image being warmed into the caches ahead of its row being shown.
+     */
+    interface Prefetch {
+
+        // Stops the load unless a row has since started waiting on it
+        void cancel();
+
+        boolean isDone();
+    }
+
+    /**
+     * A single image being loaded, for any number of ImageViews or as a prefetch. Rows showing
+     * the same image share one request. Only holds the views weakly so a queued request doesn't
+     * keep a destroyed activity alive.
+     * <p/>
+     * Runs as a chain of stages, each in the {@link TaskScheduler} pool for the resource it
+     * uses: the thumbnail is looked up on disk, downloaded if it isn't there, then decoded.
+     */
+    private class ImageRequest implements Prefetch {
+
+        private final String mUrl;
+        private final String mKey;
+        private final int mWidth;
+        private final int mHeight;
+        /* Stored thumbnails this one can stand in for, so one cached before the connection changed
+        is still used rather than the whole image being downloaded again at the new scale */
+        private final int[][] mCachedSizes;
+        private final long mStartTime = SystemClock.uptimeMillis();
+
+        // Rows waiting on the image, main thread only
+        private final List<WeakReference<ImageView>> mImageViewReferences = new ArrayList<>();
+
+        private volatile TaskScheduler.Priority mPriority;
+        private volatile TaskScheduler.TaskHandle mHandle;
+        private volatile boolean mCancelled;
+        private volatile boolean mDone;
+        // Set by the stage that finishes the request, so a stage failing afterwards can't finish it again
+        private volatile boolean mFinished;
+
+        // Downloads that failed in a row, only touched by one stage at a time
+        private int mFailedAttempts;
+        // Runs the download again once the backoff is over, main thread only
+        private Runnable mRetry;
+
+        ImageRequest(String url, String key, int baseWidth, int baseHeight, float scale, ImageView imageView,
+                     TaskScheduler.Priority priority) {
+            this.mUrl = url;
+            this.mKey = key;
+            this.mWidth = ImageSizing.scaledSize(baseWidth, scale);
+            this.mHeight = ImageSizing.scaledSize(baseHeight, scale);
+            // A smaller one only does when downloading costs something, on Wi-Fi the image is fetched again
+            boolean allowSmaller = mLoadingPolicy.getMode() != LoadingPolicy.Mode.UNMETERED;
+            this.mCachedSizes = ImageSizing.cachedSizes(baseWidth, baseHeight, scale,
+                    LoadingPolicy.thumbnailScales(), allowSmaller);
+            if (imageView != null) {
+                mImageViewReferences.add(new WeakReference<>(imageView));
+            }
+            this.mPriority = priority;
+        }
+
+        void start() {
+            final String diskKey = ThumbnailDiskCache.key(mUrl, mWidth, mHeight);
+            schedule(TaskScheduler.Pool.DISK_IO, new Runnable() {
+                @Override
+                public void run() {
+                    readThumbnail(diskKey);
+                }
+            });
+        }
+
+        // A row is now waiting on this request too, so a prefetch jumps ahead of the other prefetches
+        void attach(ImageView imageView) {
+            mImageViewReferences.add(new WeakReference<>(imageView));
+            mPriority = TaskScheduler.Priority.VISIBLE;
+            TaskScheduler.TaskHandle handle = mHandle;
+            if (handle != null) {
+                handle.setPriority(mPriority);
+            }
+        }
+
+        // Drops any rows that have since been garbage collected
+        boolean isWaitedOn() {
+            for (Iterator<WeakReference<ImageView>> it = mImageViewReferences.iterator(); it.hasNext(); ) {
+                if (it.next().get() == null) {
+                    it.remove();
+                }
+            }
+            return !mImageViewReferences.isEmpty();
+        }
+
+        // The row has moved on to another cake, the load stops once no row is waiting on it
+        void detach(ImageView imageView) {
+            for (Iterator<WeakReference<ImageView>> it = mImageViewReferences.iterator(); it.hasNext(); ) {
+                if (it.next().get() == imageView) {
+                    it.remove();
+                }
+            }
+            if (!isWaitedOn()) {
+                stop();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (!isWaitedOn()) {
+                stop();
+            }
+        }
+
+        private void stop() {
+            mCancelled = true;
+            TaskScheduler.TaskHandle handle = mHandle;
+            if (handle != null) {
+                handle.cancel();
+            }
+            if (mRetry != null) {
+                mMainHandler.removeCallbacks(mRetry);
+                mWaitingToRetry.remove(this);
+                mRetry = null;
+            }
+            if (mInFlight.get(mKey) == this) {
+                mInFlight.remove(mKey);
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone || mCancelled;
+        }
+
+        // Runs the next stage in the pool for the resource it needs, unless the request was cancelled
+        private void schedule(TaskScheduler.Pool pool, final Runnable stage) {
+            if (mCancelled) {
+                finish(null);
+                return;
+            }
+            mHandle = TaskScheduler.getInstance().submit(pool, mPriority, new Runnable() {
+                @Override
+                public void run() {
+                    boolean handedOn = false;
+                    try {
+                        if (mCancelled) {
+                            finish(null);
+                        } else {
+                            stage.run();
+                        }
+                        handedOn = true;
+                    } finally {
+                        if (!handedOn) {
+                            // The stage threw, e.g. ran out of memory decoding, so give up on the image
+                            // rather than leave every row showing it waiting on a request that never ends
+                            finish(null);
+                        }
+                    }
+                }
+            });
+        }
+
+        private void readThumbnail(final String diskKey) {
+            final byte[] data;
+            final String cachedKey;
+            try {
+                cachedKey = mDiskCache.findKey(mUrl, mCachedSizes);
+                data = cachedKey != null ? mDiskCache.get(cachedKey) : null;
+            } catch (IOException e) {
+                Log.w(TAG, "Error reading thumbnail cache: " + e.getMessage());
+                fetch(diskKey);
+                return;
+            }
+
+            if (data == null) {
+                mMetrics.increment(Metrics.Counter.DISK_CACHE_MISS);
+                fetch(diskKey);
+                return;
+            }
+            mMetrics.increment(Metrics.Counter.DISK_CACHE_HIT);
+
+            schedule(TaskScheduler.Pool.IMAGE_DECODE, new Runnable() {
+                @Override
+                public void run() {
+                    decodeThumbnail(cachedKey, diskKey, data);
+                }
+            });
+        }
+
+        private void decodeThumbnail(final String cachedKey, final String diskKey, byte[] data) {
+            long decodeStart = Metrics.now();
+            Bitmap thumbnail = decodeSampledBitmap(data, mWidth, mHeight);
+            mMetrics.record(Metrics.Timer.IMAGE_DECODE, decodeStart);
+            if (thumbnail != null) {
+                finish(thumbnail);
+                return;
+            }
+
+            // Unreadable, so drop it and load the image again
+            schedule(TaskScheduler.Pool.DISK_IO, new Runnable() {
+                @Override
+                public void run() {
+                    removeThumbnail(cachedKey);
+                    fetch(diskKey);
+                }
+            });
+        }
+
+        private void fetch(final String diskKey) {
+            schedule(TaskScheduler.Pool.IMAGE_FETCH, new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] data;
+                    try {
+                        long startTime = SystemClock.uptimeMillis();
+                        long fetchStart = Metrics.now();
+                        data = download(mUrl);
+                        mMetrics.record(Metrics.Timer.IMAGE_FETCH, fetchStart);
+                        mMetrics.add(Metrics.Counter.IMAGE_BYTES, data.length);
+                        mLoadingPolicy.onDownloadMeasured(data.length, SystemClock.uptimeMillis() - startTime);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Error loading image " + mUrl + ": " + e.getMessage());
+                        if (DOWNLOAD_RETRY.shouldRetry(e, ++mFailedAttempts)) {
+                            retryLater(diskKey);
+                        } else {
+                            finish(null);
+                        }
+                        return;
+                    }
+
+                    schedule(TaskScheduler.Pool.IMAGE_DECODE, new Runnable() {
+                        @Override
+                        public void run() {
+                            decodeDownloaded(diskKey, data);
+                        }
+                    });
+                }
+            });
+        }
+
+        // Waits out the backoff before downloading again, or for the network to come back if it is down
+        private void retryLater(final String diskKey) {
+            final long delayMillis = DOWNLOAD_RETRY.getDelayMillis(mFailedAttempts);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        finish(null);
+                        return;
+                    }
+                    mRetry = new Runnable() {
+                        @Override
+                        public void run() {
+                            mRetry = null;
+                            mWaitingToRetry.remove(ImageRequest.this);
+                            fetch(diskKey);
+                        }
+                    };
+                    mWaitingToRetry.add(ImageRequest.this);
+                    if (mLoadingPolicy.getMode() != LoadingPolicy.Mode.OFFLINE) {
+                        mMainHandler.postDelayed(mRetry, delayMillis);
+                    }
+                }
+            });
+        }
+
+        // Skips the rest of the backoff, with a fresh set of attempts for the new connection
+        void retryNow() {
+            Runnable retry = mRetry;
+            if (retry != null) {
+                mMainHandler.removeCallbacks(retry);
+                mFailedAttempts = 0;
+                retry.run();
+            }
+        }
+
+        private void decodeDownloaded(final String diskKey, byte[] data) {
+            long decodeStart = Metrics.now();
+            Bitmap sampledBitmap = decodeSampledBitmap(data, mWidth, mHeight);
+            mMetrics.record(Metrics.Timer.IMAGE_DECODE, decodeStart);
+            if (sampledBitmap == null) {
+                Log.w(TAG, "Unable to decode image " + mUrl);
+                finish(null);
+                return;
+            }
+
+            // Checked before cropping, the cropped copy always has an alpha channel
+            boolean opaque = !sampledBitmap.hasAlpha();
+            Bitmap thumbnail = createThumbnail(sampledBitmap, mWidth, mHeight);
+
+            // Encoded while it is certainly not on screen, written whenever the disk is free
+            final byte[] encoded = encodeThumbnail(thumbnail, opaque);
+            if (encoded != null) {
+                TaskScheduler.getInstance().submit(TaskScheduler.Pool.DISK_IO, TaskScheduler.Priority.BACKGROUND,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                storeThumbnail(diskKey, encoded);
+                            }
+                        });
+            }
+
+            finish(thumbnail);
+        }
+
+        // Hands the thumbnail, or null if it couldn't be loaded, back to the main thread, only once
+        private void finish(final Bitmap thumbnail) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            if (mMetrics.shouldTrace()) {
+                mMetrics.trace("Image " + mUrl + " at " + mWidth + "x" + mHeight
+                        + (thumbnail != null ? " loaded" : " failed") + " after "
+                        + (SystemClock.uptimeMillis() - mStartTime) + "ms, " + mFailedAttempts + " failed downloads");
+            }
+            if (thumbnail != null) {
+                recordLoadTime(SystemClock.uptimeMillis() - mStartTime);
+
+                // Held until delivered so it can't be pooled if it is evicted on the way to the view
+                retain(thumbnail);
+
+                // Cached even if cancelled, the row is likely to scroll back into view
+                mMemoryCache.put(mKey, thumbnail);
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mDone = true;
+                    if (mInFlight.get(mKey) == ImageRequest.this) {
+                        mInFlight.remove(mKey);
+                    }
+                    if (thumbnail == null) {
+                        return;
+                    }
+
+                    // Only set the image on rows still showing the cake it was requested for
+                    boolean delivered = false;
+                    for (WeakReference<ImageView> reference : mImageViewReferences) {
+                        ImageView imageView = reference.get();
+                        if (mCancelled || imageView == null
+                                || imageView.getTag(R.id.tag_image_request) != ImageRequest.this) {
+                            continue;
+                        }
+                        if (delivered) {
+                            // The first row takes over the reference retained for delivery, the rest need their own
+                            retain(thumbnail);
+                        }
+                        imageView.setTag(R.id.tag_image_request, null);
+                        display(imageView, thumbnail);
+                        delivered = true;
+                    }
+                    mImageViewReferences.clear();
+                    if (!delivered) {
+                        release(thumbnail);
+                    }
+                }
+            });
+        }
+    }
+}
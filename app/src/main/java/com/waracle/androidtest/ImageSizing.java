@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Works out how far an image can be subsampled while decoding and still fill its target, and which
+ * stored thumbnails can stand in for one at a given size.
+ * <p/>
+ * Plain Java, so it can be benchmarked on the JVM alongside the feed parsing.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+final class ImageSizing {
+
+    private ImageSizing() {
+        /* Static helpers only */
+    }
+
+    /**
+     * Returns the largest power of two inSampleSize that keeps both sides of the decoded
+     * image at least as big as the target, so a centre crop never has to scale up.
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while ((width / (inSampleSize * 2)) >= reqWidth && (height / (inSampleSize * 2)) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    // One side of a thumbnail at the given fraction of the size rows show it at
+    static int scaledSize(int sizePx, float scale) {
+        return Math.max(1, Math.round(sizePx * scale));
+    }
+
+    /**
+     * Returns the {width, height} sizes a thumbnail for a row of the given size may already be stored at
+     * under any of the scales: the target scale first, then bigger ones nearest first, then, if a
+     * smaller image will do, smaller ones nearest first.
+     */
+    static int[][] cachedSizes(int width, int height, float scale, float[] scales, boolean allowSmaller) {
+        float[] sorted = scales.clone();
+        Arrays.sort(sorted);
+
+        List<int[]> sizes = new ArrayList<>();
+        addSize(sizes, scaledSize(width, scale), scaledSize(height, scale));
+        for (float candidate : sorted) {
+            if (candidate > scale) {
+                addSize(sizes, scaledSize(width, candidate), scaledSize(height, candidate));
+            }
+        }
+        if (allowSmaller) {
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                if (sorted[i] < scale) {
+                    addSize(sizes, scaledSize(width, sorted[i]), scaledSize(height, sorted[i]));
+                }
+            }
+        }
+        return sizes.toArray(new int[sizes.size()][]);
+    }
+
+    private static void addSize(List<int[]> sizes, int width, int height) {
+        for (int[] size : sizes) {
+            if (size[0] == width && size[1] == height) {
+                return;
+            }
+        }
+        sizes.add(new int[]{width, height});
+    }
+
+    // Size of one side once subsampled, rounded up, so a reused bitmap is always big enough
+    static int sampledSize(int size, int inSampleSize) {
+        return (size + inSampleSize - 1) / inSampleSize;
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull-style JSON tokenizer reading one token at a time straight off a {@link Reader}.
+ * <p/>
+ * Follows the shape of android.util.JsonReader (which needs API 11) so the feed can be
+ * parsed while the bytes arrive, without ever holding the whole response in memory.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class JsonPullReader implements Closeable {
+
+    // Tokens that can be returned from peek()
+    enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // Thrown when the stream is not well formed JSON or not shaped as expected, as opposed to failing to read it
+    static class SyntaxException extends IOException {
+        SyntaxException(String message) {
+            super(message);
+        }
+    }
+
+    // Lexical scopes the reader can be nested in
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader mReader;
+
+    // Chars read from the underlying reader but not yet consumed
+    private final char[] mBuffer = new char[1024];
+    private int mPos;
+    private int mLimit;
+    // Chars consumed before the current buffer, so errors can say where in the stream they are
+    private long mBufferStart;
+
+    // Reused when a string spans buffer refills or contains escapes
+    private final StringBuilder mStringBuilder = new StringBuilder();
+
+    private int[] mStack = new int[16];
+    private int mStackSize;
+
+    // The token peeked but not yet consumed, with its text for names and scalar values
+    private Token mPeeked;
+    private String mPeekedValue;
+
+    JsonPullReader(Reader reader) {
+        this.mReader = reader;
+        mStack[mStackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    Token peek() throws IOException {
+        if (mPeeked != null) {
+            return mPeeked;
+        }
+
+        int c;
+        int scope = mStack[mStackSize - 1];
+        switch (scope) {
+            case EMPTY_ARRAY:
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                }
+                mPos--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return mPeeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Unterminated object");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                mPeekedValue = readString();
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                return mPeeked = Token.NAME;
+            case DANGLING_NAME:
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                // Only whitespace may follow the top level value
+                if (nextNonWhitespaceOrEnd() == -1) {
+                    return mPeeked = Token.END_DOCUMENT;
+                }
+                throw syntaxError("Trailing content after document");
+        }
+        return mPeeked = readValueToken();
+    }
+
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_ARRAY && token != Token.END_OBJECT && token != Token.END_DOCUMENT;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        mStackSize--;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        mStackSize--;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        return mPeekedValue;
+    }
+
+    /**
+     * Returns the text of the next string, number or boolean, mirroring JSONObject.getString()
+     */
+    String nextString() throws IOException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+            throw syntaxError("Expected a scalar value but was " + token);
+        }
+        mPeeked = null;
+        return mPeekedValue;
+    }
+
+    // Skips the next value, recursively skipping any nested arrays or objects
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    if (depth == 0) {
+                        throw syntaxError("Expected a value but was " + token);
+                    }
+                    endArray();
+                    depth--;
+                    break;
+                case END_OBJECT:
+                    if (depth == 0) {
+                        throw syntaxError("Expected a value but was " + token);
+                    }
+                    endObject();
+                    depth--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Expected a value but was " + token);
+                default:
+                    // names and scalars
+                    mPeeked = null;
+                    break;
+            }
+        } while (depth != 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mPeeked = null;
+        mStackSize = 0;
+        mReader.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        mPeeked = null;
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] grown = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, grown, 0, mStackSize);
+            mStack = grown;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private Token readValueToken() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '"':
+                mPeekedValue = readString();
+                return Token.STRING;
+            default:
+                mPos--;
+                return readLiteral();
+        }
+    }
+
+    // Reads true, false, null or a number up to the next delimiter
+    private Token readLiteral() throws IOException {
+        mStringBuilder.setLength(0);
+        int c;
+        while ((c = read()) != -1) {
+            if (c == ',' || c == ']' || c == '}' || c == ':' || isWhitespace(c)) {
+                mPos--;
+                break;
+            }
+            mStringBuilder.append((char) c);
+        }
+        String literal = mStringBuilder.toString();
+        if (literal.equals("true") || literal.equals("false")) {
+            mPeekedValue = literal;
+            return Token.BOOLEAN;
+        }
+        if (literal.equals("null")) {
+            mPeekedValue = null;
+            return Token.NULL;
+        }
+        if (literal.length() == 0 || !isNumber(literal)) {
+            throw syntaxError("Unexpected value '" + literal + "'");
+        }
+        mPeekedValue = literal;
+        return Token.NUMBER;
+    }
+
+    // Reads the rest of a quoted string, the opening quote having already been consumed
+    private String readString() throws IOException {
+        StringBuilder builder = null;
+        while (true) {
+            int start = mPos;
+            while (mPos < mLimit) {
+                char c = mBuffer[mPos++];
+                if (c == '"') {
+                    if (builder == null) {
+                        // Fast path, the whole string was in the buffer with no escapes
+                        return new String(mBuffer, start, mPos - start - 1);
+                    }
+                    builder.append(mBuffer, start, mPos - start - 1);
+                    return builder.toString();
+                }
+                if (c == '\\') {
+                    if (builder == null) {
+                        builder = mStringBuilder;
+                        builder.setLength(0);
+                    }
+                    builder.append(mBuffer, start, mPos - start - 1);
+                    builder.append(readEscape());
+                    start = mPos;
+                }
+            }
+            if (builder == null) {
+                builder = mStringBuilder;
+                builder.setLength(0);
+            }
+            builder.append(mBuffer, start, mPos - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int hex = Character.digit(read(), 16);
+                    if (hex == -1) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | hex;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private int read() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPos++];
+    }
+
+    private boolean fill() throws IOException {
+        mBufferStart += mLimit;
+        mPos = 0;
+        mLimit = 0;
+        int count = mReader.read(mBuffer, 0, mBuffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        mLimit = count;
+        return true;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = nextNonWhitespaceOrEnd();
+        if (c == -1) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return c;
+    }
+
+    private int nextNonWhitespaceOrEnd() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && isWhitespace(c));
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static boolean isNumber(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private SyntaxException syntaxError(String message) {
+        return new SyntaxException(message + " at character " + (mBufferStart + mPos) + ", depth " + mStackSize);
+    }
+}
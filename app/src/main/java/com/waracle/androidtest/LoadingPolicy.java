@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Decides how much loading is worth doing on the current connection.
+ * <p/>
+ * The connection is sorted into a {@link Mode} from its type, whether it is metered and the
+ * bandwidth measured from image downloads. Each mode sets the size thumbnails are decoded at,
+ * how many images download at once, how far ahead of the scroll images are prefetched and
+ * whether a stored feed is checked for changes. The mode is worked out again whenever
+ * {@link NetworkChangeReceiver} reports a change or a download is measured.
+ * <p/>
+ * The feed's image host only serves full size images, so a smaller thumbnail saves memory and
+ * decode time but not bytes. What saves bytes on a metered link is not prefetching, so only
+ * images a row actually shows are downloaded there.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class LoadingPolicy {
+
+    enum Mode {
+        // Wi-Fi, ethernet or another link that costs nothing to use
+        UNMETERED(1f, 3, 20, true),
+        // Mobile data fast enough to use, but every byte costs the user, so nothing speculative either
+        METERED(0.75f, 2, 0, true),
+        // 2G class links and anything measured slower than that, nothing speculative
+        SLOW(0.5f, 1, 0, false),
+        // Only what is already on disk can load, at the size it was most likely stored at
+        OFFLINE(1f, 1, 20, false);
+
+        final float mThumbnailScale;
+        final int mImageFetchThreads;
+        final int mMaxPrefetchRows;
+        final boolean mFeedRevalidation;
+
+        Mode(float thumbnailScale, int imageFetchThreads, int maxPrefetchRows, boolean feedRevalidation) {
+            this.mThumbnailScale = thumbnailScale;
+            this.mImageFetchThreads = imageFetchThreads;
+            this.mMaxPrefetchRows = maxPrefetchRows;
+            this.mFeedRevalidation = feedRevalidation;
+        }
+    }
+
+    private static final String TAG = LoadingPolicy.class.getSimpleName();
+
+    // Below roughly 160kbit/s a connection is treated as slow whatever its type
+    private static final float SLOW_BYTES_PER_SECOND = 20 * 1024;
+    // Smaller downloads are mostly latency and say little about bandwidth
+    private static final int MIN_MEASURED_BYTES = 8 * 1024;
+    // Weight of the latest download in the smoothed bandwidth
+    private static final float BANDWIDTH_SMOOTHING = 0.3f;
+
+    private static LoadingPolicy sInstance;
+
+    private final Context mContext;
+
+    private volatile Mode mMode;
+    // Smoothed bandwidth of the current connection, negative until a download has been measured
+    private float mBytesPerSecond = -1;
+
+    private LoadingPolicy(Context context) {
+        this.mContext = context;
+        update();
+    }
+
+    static synchronized LoadingPolicy getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LoadingPolicy(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    Mode getMode() {
+        return mMode;
+    }
+
+    // Fraction of an ImageView's size its thumbnail is decoded at, the full size image is downloaded whatever it is
+    float getThumbnailScale() {
+        return mMode.mThumbnailScale;
+    }
+
+    // Every scale a thumbnail may have been stored at, so one cached under another mode can still be found
+    static float[] thumbnailScales() {
+        Mode[] modes = Mode.values();
+        float[] scales = new float[modes.length];
+        for (int i = 0; i < modes.length; i++) {
+            scales[i] = modes[i].mThumbnailScale;
+        }
+        return scales;
+    }
+
+    int getMaxPrefetchRows() {
+        return mMode.mMaxPrefetchRows;
+    }
+
+    boolean isFeedRevalidationAllowed() {
+        return mMode.mFeedRevalidation;
+    }
+
+    // Works the mode out again for a new connection, whose bandwidth has to be measured afresh
+    synchronized void onConnectivityChanged() {
+        mBytesPerSecond = -1;
+        update();
+    }
+
+    // Called with each finished image download, on whichever thread it ran on
+    synchronized void onDownloadMeasured(long bytes, long elapsedMillis) {
+        if (bytes < MIN_MEASURED_BYTES || elapsedMillis <= 0) {
+            return;
+        }
+        float bytesPerSecond = bytes * 1000f / elapsedMillis;
+        if (mBytesPerSecond < 0) {
+            mBytesPerSecond = bytesPerSecond;
+        } else {
+            mBytesPerSecond += (bytesPerSecond - mBytesPerSecond) * BANDWIDTH_SMOOTHING;
+        }
+        update();
+    }
+
+    private synchronized void update() {
+        Mode mode = classify();
+        if (mode == mMode) {
+            return;
+        }
+        Log.d(TAG, "Loading mode " + mMode + " -> " + mode + " at " + (int) mBytesPerSecond + " bytes/s");
+        mMode = mode;
+        TaskScheduler.getInstance().setConcurrency(TaskScheduler.Pool.IMAGE_FETCH, mode.mImageFetchThreads);
+    }
+
+    private Mode classify() {
+        if (!NetworkUtil.isConnected(mContext)) {
+            return Mode.OFFLINE;
+        }
+        if (NetworkUtil.isSlowConnection(mContext)
+                || (mBytesPerSecond >= 0 && mBytesPerSecond < SLOW_BYTES_PER_SECOND)) {
+            return Mode.SLOW;
+        }
+        if (NetworkUtil.isMetered(mContext)) {
+            return Mode.METERED;
+        }
+        return Mode.UNMETERED;
+    }
+}
@@ -15,12 +15,11 @@
  */
 package com.waracle.androidtest;
 
+import android.os.Build;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 
-import java.util.List;
-
 
 /**
  * Main activity to host the fragment containing the list of cakes
@@ -42,6 +41,12 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
         Log.d(TAG, "onCreate");
 
+        // Keeps the feed and first thumbnails fresh on disk for the next launch
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Checked here, loading the service class at all fails before Lollipop
+            FeedSyncService.schedule(this);
+        }
+
         if (savedInstanceState == null) {
             if (mPlaceholderFragment == null) {
                 // Activity starting first time
@@ -68,17 +73,4 @@ public class MainActivity extends AppCompatActivity {
             mPlaceholderFragment = null;
         }
     }
-
-    // Update the list of the cakes from the activity
-    public void updateCakesList(List<Cake> result) {
-        // Check to make sure the components are not null (set by onDetach)
-        if (mPlaceholderFragment != null) {
-            if (mPlaceholderFragment.mDownloadCakesTask != null) {
-                if (mPlaceholderFragment.mCakeAdapter != null) {
-                    // update the adapter
-                    mPlaceholderFragment.mCakeAdapter.addItemsToList(result);
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Hands memory back to the system when it asks for it, so the process survives longer in the
+ * background and comes back without loading everything again.
+ * <p/>
+ * The image caches and the cake model register here and are told how hard to trim, in tiers
+ * worked out from the onTrimMemory level: first the memory caches shrink, then every bitmap
+ * not on screen is dropped, and finally what is left is spilled to disk to be read back as it
+ * is needed. Cache budgets are taken from the device's memory class rather than the heap limit,
+ * which a large heap would inflate, and halved again on low RAM devices.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class MemoryGovernor implements ComponentCallbacks2 {
+
+    // How much to give back, each tier doing everything the ones before it do as well
+    enum Tier {
+        NONE,
+        // Memory caches drop their least recently used half
+        SHRINK,
+        // Only bitmaps actually on screen are kept
+        DROP_OFF_SCREEN,
+        // Anything that can be read back from disk is
+        SPILL
+    }
+
+    /**
+     * Something holding memory it can do without. Told on the main thread.
+     */
+    interface Trimmable {
+        void onTrim(Tier tier);
+    }
+
+    private static final String TAG = MemoryGovernor.class.getSimpleName();
+
+    private static final int BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private static MemoryGovernor sInstance;
+
+    private final int mMemoryClassMegabytes;
+    private final boolean mLowRamDevice;
+
+    private final List<Trimmable> mTrimmables = new CopyOnWriteArrayList<>();
+
+    private MemoryGovernor(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mMemoryClassMegabytes = activityManager.getMemoryClass();
+        mLowRamDevice = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice();
+        // Before Ice Cream Sandwich there are no trim levels, the caches just keep to their budgets
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            context.registerComponentCallbacks(this);
+        }
+    }
+
+    static synchronized MemoryGovernor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MemoryGovernor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    void register(Trimmable trimmable) {
+        mTrimmables.add(trimmable);
+    }
+
+    void unregister(Trimmable trimmable) {
+        mTrimmables.remove(trimmable);
+    }
+
+    // Bytes a cache may use when given this fraction of the memory the app is expected to live within
+    int getCacheBudgetBytes(int divisor) {
+        return budgetBytes(mMemoryClassMegabytes, mLowRamDevice, divisor);
+    }
+
+    static int budgetBytes(int memoryClassMegabytes, boolean lowRamDevice, int divisor) {
+        int budget = memoryClassMegabytes * BYTES_PER_MEGABYTE / divisor;
+        return lowRamDevice ? budget / 2 : budget;
+    }
+
+    static Tier tierFor(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            // Next in line to be killed, keep as little as possible on the heap
+            return Tier.SPILL;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL
+                || level == TRIM_MEMORY_RUNNING_LOW) {
+            return Tier.DROP_OFF_SCREEN;
+        }
+        if (level == TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_MODERATE) {
+            return Tier.SHRINK;
+        }
+        return Tier.NONE;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trim(tierFor(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(Tier.SPILL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Nothing held here depends on the configuration
+    }
+
+    private void trim(Tier tier) {
+        if (tier == Tier.NONE) {
+            return;
+        }
+        Log.d(TAG, "Trimming memory: " + tier);
+        for (Trimmable trimmable : mTrimmables) {
+            trimmable.onTrim(tier);
+        }
+    }
+}
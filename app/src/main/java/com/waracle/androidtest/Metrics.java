@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cheap enough to leave switched on in the field: timings of each stage from fetching the feed
+ * to drawing its images, cache hit and miss counts, and a ring of the latest events.
+ * <p/>
+ * Timings go into histograms with a bucket per power of two microseconds, so recording one is a
+ * few atomic adds and no allocation, and percentiles are accurate to within a factor of two.
+ * The ring keeps the last {@link #EVENT_CAPACITY} timings and sampled traces, and is overwritten
+ * without locking, so a dump taken while events are recorded can show a half written entry.
+ * Each cake parsed and each image request is traced for one in {@link #TRACE_SAMPLE_INTERVAL}
+ * rather than logged.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class Metrics {
+
+    // Stages that are timed
+    enum Timer {
+        // DNS lookup, TCP connect and TLS handshake to the feed server
+        FEED_CONNECT,
+        // From connecting to the status line of the response
+        FEED_FIRST_BYTE,
+        // From opening the feed to its last cake, whether from the network or disk
+        FEED_DOWNLOAD,
+        // Time spent parsing the feed, leaving out waiting for it to arrive
+        FEED_PARSE,
+        // From the list being created to its first row being bound
+        FIRST_ROW,
+        ROW_BIND,
+        IMAGE_FETCH,
+        IMAGE_DECODE,
+        // Each frame drawn while the list is scrolling, see FrameMonitor
+        SCROLL_FRAME,
+        // Answering a search query, including indexing cakes that arrived since the last one
+        SEARCH,
+        // A background sync, from the job starting to the feed and thumbnails being stored
+        BACKGROUND_SYNC
+    }
+
+    // Things that are counted
+    enum Counter {
+        FEED_CACHE_HIT,
+        FEED_CACHE_MISS,
+        MEMORY_CACHE_HIT,
+        MEMORY_CACHE_MISS,
+        DISK_CACHE_HIT,
+        DISK_CACHE_MISS,
+        // Bytes downloaded, rather than served from a cache
+        FEED_BYTES,
+        IMAGE_BYTES
+    }
+
+    static final int EVENT_CAPACITY = 256;
+    static final int TRACE_SAMPLE_INTERVAL = 64;
+
+    // Bucket i holds timings from 2^i to 2^(i+1) microseconds, the last one everything longer
+    private static final int BUCKET_COUNT = 32;
+
+    private static Metrics sInstance;
+
+    private final Histogram[] mHistograms = new Histogram[Timer.values().length];
+    private final AtomicLongArray mCounters = new AtomicLongArray(Counter.values().length);
+
+    // The ring of recent events, the cursor counts every event ever recorded
+    private final AtomicLong mEventCursor = new AtomicLong();
+    private final long[] mEventTimes = new long[EVENT_CAPACITY];
+    private final long[] mEventDurations = new long[EVENT_CAPACITY];
+    private final Timer[] mEventTimers = new Timer[EVENT_CAPACITY];
+    private final String[] mEventTraces = new String[EVENT_CAPACITY];
+
+    private final AtomicLong mTraceCounter = new AtomicLong();
+
+    Metrics() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    static synchronized Metrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new Metrics();
+        }
+        return sInstance;
+    }
+
+    // Start time to hand back to record()
+    static long now() {
+        return System.nanoTime();
+    }
+
+    // Records the time since startNanos, taken from now()
+    void record(Timer timer, long startNanos) {
+        recordNanos(timer, System.nanoTime() - startNanos);
+    }
+
+    void recordNanos(Timer timer, long durationNanos) {
+        mHistograms[timer.ordinal()].add(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+        addEvent(timer, durationNanos, null);
+    }
+
+    void increment(Counter counter) {
+        mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    void add(Counter counter, long amount) {
+        mCounters.addAndGet(counter.ordinal(), amount);
+    }
+
+    long getCount(Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    // Number of timings recorded for the stage
+    long getCount(Timer timer) {
+        return mHistograms[timer.ordinal()].mCount.get();
+    }
+
+    /**
+     * Roughly the time in microseconds the given fraction of timings of the stage took at most,
+     * the top of the bucket that fraction falls in. 0 if nothing has been recorded.
+     */
+    long getPercentileMicros(Timer timer, double fraction) {
+        return mHistograms[timer.ordinal()].percentile(fraction);
+    }
+
+    // True for one call in TRACE_SAMPLE_INTERVAL, so work done per item is only traced for a sample
+    boolean shouldTrace() {
+        return mTraceCounter.getAndIncrement() % TRACE_SAMPLE_INTERVAL == 0;
+    }
+
+    void trace(String message) {
+        addEvent(null, 0, message);
+    }
+
+    private void addEvent(Timer timer, long durationNanos, String trace) {
+        int slot = (int) (mEventCursor.getAndIncrement() % EVENT_CAPACITY);
+        mEventTimes[slot] = System.currentTimeMillis();
+        mEventTimers[slot] = timer;
+        mEventDurations[slot] = durationNanos;
+        mEventTraces[slot] = trace;
+    }
+
+    /**
+     * Describes every stage and counter, and if asked the recent events oldest first, for a debug
+     * screen, a log or a test to look at.
+     */
+    String dump(boolean includeEvents) {
+        StringBuilder builder = new StringBuilder();
+        for (Timer timer : Timer.values()) {
+            Histogram histogram = mHistograms[timer.ordinal()];
+            long count = histogram.mCount.get();
+            if (count == 0) {
+                continue;
+            }
+            builder.append(timer).append(": n=").append(count)
+                    .append(" mean=").append(formatMicros(histogram.mTotalMicros.get() / count))
+                    .append(" p50<=").append(formatMicros(histogram.percentile(0.5)))
+                    .append(" p90<=").append(formatMicros(histogram.percentile(0.9)))
+                    .append(" p99<=").append(formatMicros(histogram.percentile(0.99)))
+                    .append(" max=").append(formatMicros(histogram.mMaxMicros.get()))
+                    .append('\n');
+        }
+        for (Counter counter : Counter.values()) {
+            builder.append(counter).append(": ").append(getCount(counter)).append('\n');
+        }
+        if (includeEvents) {
+            long end = mEventCursor.get();
+            for (long event = Math.max(0, end - EVENT_CAPACITY); event < end; event++) {
+                int slot = (int) (event % EVENT_CAPACITY);
+                builder.append(mEventTimes[slot]).append(' ');
+                if (mEventTimers[slot] != null) {
+                    builder.append(mEventTimers[slot]).append(' ')
+                            .append(formatMicros(TimeUnit.NANOSECONDS.toMicros(mEventDurations[slot])));
+                } else {
+                    builder.append(mEventTraces[slot]);
+                }
+                builder.append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String formatMicros(long micros) {
+        return micros < 1000 ? micros + "us" : (micros / 1000) + "." + (micros % 1000 / 100) + "ms";
+    }
+
+    /**
+     * Timings of one stage, counted into power of two buckets.
+     */
+    private static class Histogram {
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalMicros = new AtomicLong();
+        private final AtomicLong mMaxMicros = new AtomicLong();
+
+        void add(long micros) {
+            int bucket = micros <= 1 ? 0 : Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mTotalMicros.addAndGet(micros);
+            long max;
+            while (micros > (max = mMaxMicros.get()) && !mMaxMicros.compareAndSet(max, micros)) {
+                // Lost to another thread, try again against its maximum
+            }
+        }
+
+        long percentile(double fraction) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                seen += mBuckets.get(bucket);
+                if (seen >= rank) {
+                    // The max is tighter than the top of the bucket it is in
+                    return Math.min((1L << (bucket + 1)) - 1, mMaxMicros.get());
+                }
+            }
+            return mMaxMicros.get();
+        }
+    }
+}
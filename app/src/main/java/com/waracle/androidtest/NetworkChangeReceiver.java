@@ -34,6 +34,15 @@ public class NetworkChangeReceiver extends BroadcastReceiver {
 
         String status = NetworkUtil.getConnectivityStatusString(context);
 
+        // Image sizes, download concurrency and prefetching follow the new connection
+        LoadingPolicy.getInstance(context).onConnectivityChanged();
+
+        if (NetworkUtil.isConnected(context)) {
+            // Downloads that failed or never started for want of a connection go ahead now
+            CakeRepository.getInstance(context).onNetworkAvailable();
+            ImageLoader.getInstance(context).onNetworkAvailable();
+        }
+
         Toast.makeText(context, status, Toast.LENGTH_LONG).show();
     }
 }
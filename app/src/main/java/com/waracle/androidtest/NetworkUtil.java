@@ -18,6 +18,12 @@ package com.waracle.androidtest;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 
 /**
  * Network Utility class that checks connectivity to
@@ -32,6 +38,10 @@ public class NetworkUtil {
     public static final int TYPE_MOBILE = 2;
     public static final int TYPE_NOT_CONNECTED = 0;
 
+    // Long enough for a slow mobile link, short enough that a dead one is given up on and retried
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+
     // Check network status and type of connection
     public static int getConnectivityStatus(Context context) {
         ConnectivityManager connectivityManager = (ConnectivityManager) context
@@ -49,6 +59,54 @@ public class NetworkUtil {
         return TYPE_NOT_CONNECTED;
     }
 
+    // Check whether there is a connection of any type that can be used now
+    public static boolean isConnected(Context context) {
+        NetworkInfo networkInfo = getActiveNetworkInfo(context);
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    // Check whether data on the current connection costs the user, assuming mobile data does on older releases
+    public static boolean isMetered(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            ConnectivityManager connectivityManager = (ConnectivityManager) context
+                    .getSystemService(Context.CONNECTIVITY_SERVICE);
+            return connectivityManager.isActiveNetworkMetered();
+        }
+        return getConnectivityStatus(context) == TYPE_MOBILE;
+    }
+
+    // Check whether the current connection is a 2G class mobile network
+    public static boolean isSlowConnection(Context context) {
+        NetworkInfo networkInfo = getActiveNetworkInfo(context);
+        if (networkInfo == null || networkInfo.getType() != ConnectivityManager.TYPE_MOBILE) {
+            return false;
+        }
+        switch (networkInfo.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Opens a connection that gives up rather than hanging when the network stops answering
+    public static HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    private static NetworkInfo getActiveNetworkInfo(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivityManager.getActiveNetworkInfo();
+    }
+
     public static String getConnectivityStatusString(Context context) {
         int conn = NetworkUtil.getConnectivityStatus(context);
         String status = null;
@@ -21,14 +21,20 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ListView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -42,20 +48,30 @@ import java.util.List;
 public class PlaceholderFragment extends Fragment {
 
     private final static String TAG = PlaceholderFragment.class.getSimpleName();
+    private final static String STATE_CAKES = "cakes";
 
-    // Current activity
-    MainActivity mCurrentActivity;
+    // Larger lists would overflow the binder transaction, they are read back from the snapshot file instead
+    private final static int MAX_SAVED_CAKES_BYTES = 256 * 1024;
 
-    // AsyncTask for downloading cakes
-    DownloadCakesTask mDownloadCakesTask;
+    // Loads the cakes independently of this fragment's lifecycle
+    private CakeRepository mCakeRepository;
 
     // Needs to update the adapter to display cakes
     CakeAdapter mCakeAdapter;
 
+    // Loads the images of the rows about to scroll into view
+    private ScrollPrefetcher mScrollPrefetcher;
+
     // Network connectivity message
     private TextView mTextViewNetworkMessage;
+    private SwipeRefreshLayout mSwipeRefreshLayout;
+
+    // Frame times while scrolling, shown over the list in builds that turn the overlay on
+    private FrameMonitor mFrameMonitor;
+    private TextView mTextViewFrameStats;
 
-    private final List<Cake> listOfCakes = new ArrayList<>();
+    // What the list is filtered by, empty to show every cake
+    private String mQuery = "";
 
     public PlaceholderFragment() {
     /* No args constructor */
@@ -65,6 +81,58 @@ public class PlaceholderFragment extends Fragment {
         return new PlaceholderFragment();
     }
 
+    // Shows whatever the repository delivers in the list
+    private final CakeRepository.Listener mCakeListener = new CakeRepository.Listener() {
+        @Override
+        public void onCakesLoaded(List<Cake> cakes) {
+            if (mQuery.isEmpty()) {
+                mCakeAdapter.addItemsToList(cakes);
+            } else {
+                // Search the new cakes rather than show them all
+                mCakeRepository.search(mQuery, mSearchListener);
+            }
+        }
+
+        @Override
+        public void onCakesAppended(List<Cake> cakes) {
+            if (mQuery.isEmpty()) {
+                mCakeAdapter.appendItemsToList(cakes);
+            } else {
+                mCakeRepository.search(mQuery, mSearchListener);
+            }
+        }
+
+        @Override
+        public void onLoadFinished() {
+            Log.d(TAG, "# of cakes shown " + mCakeAdapter.getItemCount());
+            Log.d(TAG, Metrics.getInstance().dump(false));
+            if (NetworkUtil.isConnected(getContext())) {
+                // The feed may have loaded by itself once the connection came back
+                mTextViewNetworkMessage.setVisibility(View.GONE);
+            }
+            mSwipeRefreshLayout.setRefreshing(false);
+        }
+
+        @Override
+        public void onCakesSpilled(List<Cake> cakes) {
+            // Search results only hold the cakes that matched, so they are left as they are
+            if (mQuery.isEmpty()) {
+                mCakeAdapter.replaceWithSameCakes(cakes);
+            }
+        }
+    };
+
+    // Shows the results of the latest search, dropping those for a query typed over since
+    private final CakeRepository.SearchListener mSearchListener = new CakeRepository.SearchListener() {
+        @Override
+        public void onSearchResults(String query, List<Cake> results) {
+            if (getView() == null || !query.equals(mQuery)) {
+                return;
+            }
+            mCakeAdapter.addItemsToList(results);
+        }
+    };
+
     /**
      * @inheritDoc
      */
@@ -72,17 +140,7 @@ public class PlaceholderFragment extends Fragment {
     public void onAttach(Context context) {
         super.onAttach(context);
         Log.d(TAG, "onAttach()");
-        this.mCurrentActivity = (MainActivity) context;
-        // Check if the AsyncTask has an attached activity, if not then attach an activity instance
-        if (mDownloadCakesTask != null) {
-            mDownloadCakesTask.onAttach(mCurrentActivity);
-        }
-    }
-
-    // Initiating a request for the list of cakes
-    public void beginTask() {
-        mDownloadCakesTask = new DownloadCakesTask(mCurrentActivity);
-        mDownloadCakesTask.execute();
+        mCakeRepository = CakeRepository.getInstance(context);
     }
 
     /**
@@ -95,6 +153,41 @@ public class PlaceholderFragment extends Fragment {
 
         // Avoid creating and destroying Fragment every time configuration changes
         setRetainInstance(true);
+        setHasOptionsMenu(true);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.menu_main, menu);
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        if (!mQuery.isEmpty()) {
+            // Put back the search that was showing before the activity was recreated
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mQuery, false);
+        }
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Results are already showing as the query is typed
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String query = newText.trim();
+                if (!query.equals(mQuery)) {
+                    mQuery = query;
+                    // Answered off the main thread, an empty query brings back every cake
+                    mCakeRepository.search(mQuery, mSearchListener);
+                }
+                return true;
+            }
+        });
     }
 
     @Override
@@ -104,15 +197,97 @@ public class PlaceholderFragment extends Fragment {
         View rootView = inflater.inflate(R.layout.fragment_main, container, false);
         mTextViewNetworkMessage = (TextView) rootView.findViewById(R.id.txt_network_connection_status);
 
-        ListView mListView = (ListView) rootView.findViewById(R.id.list);
+        mFrameMonitor = FrameMonitor.getInstance();
+        if (getResources().getBoolean(R.bool.frame_monitor_overlay)) {
+            mTextViewFrameStats = (TextView) rootView.findViewById(R.id.txt_frame_stats);
+        }
+
+        // Pulling the list down checks the feed for changes, keeping the cakes shown until it is in
+        mSwipeRefreshLayout = (SwipeRefreshLayout) rootView.findViewById(R.id.swipe_refresh);
+        mSwipeRefreshLayout.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
+            @Override
+            public void onRefresh() {
+                refreshData();
+            }
+        });
+
+        RecyclerView mRecyclerView = (RecyclerView) rootView.findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(getContext()) {
+            @Override
+            public void onLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
+                long layoutStart = Metrics.now();
+                super.onLayoutChildren(recycler, state);
+                mFrameMonitor.addWork(FrameMonitor.Work.LAYOUT, layoutStart);
+            }
+
+            @Override
+            public int scrollVerticallyBy(int dy, RecyclerView.Recycler recycler, RecyclerView.State state) {
+                // Scrolling lays out the rows coming into view
+                long layoutStart = Metrics.now();
+                int scrolled = super.scrollVerticallyBy(dy, recycler, state);
+                mFrameMonitor.addWork(FrameMonitor.Work.LAYOUT, layoutStart);
+                return scrolled;
+            }
+        };
+        mRecyclerView.setLayoutManager(layoutManager);
+        // The list fills its parent whatever rows it holds, so changes to its contents never resize the RecyclerView itself
+        mRecyclerView.setHasFixedSize(true);
 
-        // Initialise and set the adapter
-        mCakeAdapter = new CakeAdapter(getContext(), listOfCakes);
-        mListView.setAdapter(mCakeAdapter);
+        // Initialise and set the adapter, the repository fills it in once attached
+        mCakeAdapter = new CakeAdapter(getContext());
+        mRecyclerView.setAdapter(mCakeAdapter);
+
+        mScrollPrefetcher = new ScrollPrefetcher(mCakeAdapter, layoutManager, ImageLoader.getInstance(getContext()),
+                LoadingPolicy.getInstance(getContext()));
+        mRecyclerView.addOnScrollListener(mScrollPrefetcher);
+
+        // Text is only fitted ahead for the rows around the screen, so the window moves with the list
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                mCakeAdapter.onRowsVisible(layoutManager.findFirstVisibleItemPosition(),
+                        layoutManager.findLastVisibleItemPosition());
+            }
+        });
+
+        // Frames are only measured while the list moves, an idle list draws nothing worth measuring
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState != RecyclerView.SCROLL_STATE_IDLE) {
+                    mFrameMonitor.start();
+                    return;
+                }
+                mFrameMonitor.stop();
+                if (mTextViewFrameStats != null) {
+                    mTextViewFrameStats.setText(mFrameMonitor.describe());
+                    mTextViewFrameStats.setVisibility(View.VISIBLE);
+                }
+                Log.d(TAG, mFrameMonitor.describe());
+            }
+        });
 
         return rootView;
     }
 
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // The load carries on without this view, a recreated one is handed what it has so far
+        mCakeRepository.detach(mCakeListener);
+
+        // Nothing left on screen to prefetch for
+        mScrollPrefetcher.cancelAll();
+        mScrollPrefetcher = null;
+
+        // A fling can still be running when the view goes
+        mFrameMonitor.stop();
+        mTextViewFrameStats = null;
+    }
+
     /**
      * @inheritDoc
      */
@@ -121,18 +296,42 @@ public class PlaceholderFragment extends Fragment {
         super.onActivityCreated(savedInstanceState);
         Log.d(TAG, "onActivityCreated");
 
+        if (savedInstanceState != null) {
+            // Only takes effect if the process was killed, otherwise the repository still has the cakes
+            CakeSnapshot savedCakes = savedInstanceState.getParcelable(STATE_CAKES);
+            if (savedCakes != null) {
+                mCakeRepository.restore(savedCakes);
+            }
+        }
+        mCakeRepository.attach(mCakeListener);
         loadData();
+        // Still refreshing from before the activity was recreated
+        mSwipeRefreshLayout.setRefreshing(mCakeRepository.isRefreshing());
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        CakeSnapshot snapshot = mCakeRepository.snapshot();
+        if (snapshot != null && snapshot.getEncodedSize() <= MAX_SAVED_CAKES_BYTES) {
+            outState.putParcelable(STATE_CAKES, snapshot);
+        }
     }
 
-    // Check if network connection is present then attempt to load cakes
+    // Load the stored cakes, then refresh them from the network if a connection is present
     private void loadData() {
         ConnectivityManager connectivityManager = (ConnectivityManager)
                 getActivity().getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
-        if (networkInfo != null && networkInfo.isConnected()) {
-            // Asynchronously load the cakes (not blocking the main thread)
-            beginTask();
-        } else {
+        boolean connected = networkInfo != null && networkInfo.isConnected();
+
+        // Asynchronously load the cakes (not blocking the main thread), joining a load already running
+        mCakeRepository.load(connected);
+
+        if (!connected) {
             // let user know the connection is not available
             mTextViewNetworkMessage.setVisibility(View.VISIBLE);
             mTextViewNetworkMessage.setText(R.string.network_no_connection_message);
@@ -140,17 +339,19 @@ public class PlaceholderFragment extends Fragment {
         }
     }
 
-    /**
-     * @inheritDoc
-     */
-    @Override
-    public void onDetach() {
-        super.onDetach();
-        Log.d(TAG, "onDetach()");
-        if (mDownloadCakesTask != null) {
-            // Notify the AsyncTask the calling activity is now not available
-            mDownloadCakesTask.onDetach();
+    // Check the cakes shown against the network, updating only the rows that changed
+    private void refreshData() {
+        if (!NetworkUtil.isConnected(getContext())) {
+            mSwipeRefreshLayout.setRefreshing(false);
+            mTextViewNetworkMessage.setVisibility(View.VISIBLE);
+            mTextViewNetworkMessage.setText(R.string.network_no_connection_message);
+            return;
+        }
+        if (mCakeRepository.isLoading() && !mCakeRepository.isRefreshing()) {
+            // The load already running checks the network, its end stops the spinner too
+            return;
         }
+        mCakeRepository.refresh();
     }
 }
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.security.cert.CertificateException;
+import java.util.Random;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Decides whether a failed download is worth trying again, and how long to wait before it is.
+ * <p/>
+ * Timeouts, dropped connections, lost DNS and overloaded servers usually clear up on their own,
+ * so they are retried. A missing resource, a refused certificate or a malformed feed will fail
+ * the same way every time, so they are not. The wait doubles with each failure up to a cap, and
+ * is randomised within its upper half so clients that failed together don't all retry together.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class RetryPolicy {
+
+    // Longest a wait can be shifted up to before it is capped anyway
+    private static final int MAX_SHIFT = 20;
+
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mMaxAttempts;
+    private final Random mRandom = new Random();
+
+    RetryPolicy(long baseDelayMillis, long maxDelayMillis, int maxAttempts) {
+        this.mBaseDelayMillis = baseDelayMillis;
+        this.mMaxDelayMillis = maxDelayMillis;
+        this.mMaxAttempts = maxAttempts;
+    }
+
+    // Whether to try again after the request failed this many times in a row, the last time with the failure
+    boolean shouldRetry(IOException failure, int failedAttempts) {
+        return failedAttempts < mMaxAttempts && isTransient(failure);
+    }
+
+    // How long to wait before trying again after the request failed this many times in a row
+    long getDelayMillis(int failedAttempts) {
+        int shift = Math.min(Math.max(failedAttempts - 1, 0), MAX_SHIFT);
+        long ceiling = Math.min(mMaxDelayMillis, mBaseDelayMillis << shift);
+        synchronized (mRandom) {
+            return ceiling / 2 + (long) (mRandom.nextDouble() * (ceiling - ceiling / 2));
+        }
+    }
+
+    static boolean isTransient(IOException failure) {
+        if (failure instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) failure).getStatusCode();
+            // Server errors, a timed out request and rate limiting, every other status is final
+            return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+        }
+        if (failure instanceof JsonPullReader.SyntaxException
+                || failure instanceof FileNotFoundException
+                || failure instanceof MalformedURLException
+                || failure instanceof ProtocolException
+                || failure instanceof SSLPeerUnverifiedException) {
+            return false;
+        }
+        if (failure instanceof SSLHandshakeException) {
+            // A handshake cut short by the network is worth retrying, a refused certificate isn't
+            return !(failure.getCause() instanceof CertificateException);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.support.v4.util.LruCache;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.widget.TextView;
+
+/**
+ * Fits the title and description of each cake to its row off the main thread, so binding a row
+ * costs the same however long its text is.
+ * <p/>
+ * Rows show one line of each, cut short with an ellipsis. Left to itself a TextView measures the
+ * whole of a long description on the main thread to find where to cut it. Here that is done
+ * ahead of time on the compute pool, with a copy of the row's text paint and width, and only
+ * what fits is cached per cake and set at bind time. The cache starts again whenever the width
+ * or the text style of the rows changes, e.g. on rotation.
+ * <p/>
+ * Only the rows within {@link #WINDOW_ROWS} of the screen are fitted, and the window follows the
+ * list as it scrolls, so a feed of any length costs the same and the rows in view are never
+ * pushed out by ones far down the list.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class RowTextCache {
+
+    // Rows fitted either side of the screen
+    private static final int WINDOW_ROWS = 100;
+    // The window is only moved once the screen comes this close to its edge, not for every row scrolled
+    private static final int WINDOW_MARGIN = WINDOW_ROWS / 2;
+    // A few windows, so rows scrolled back to are usually still fitted. Each entry is just two short strings.
+    private static final int MAX_CAKES = 4 * WINDOW_ROWS;
+    // Rows fitted per task, so fitting never holds up a diff for long
+    private static final int CAKES_PER_TASK = 50;
+
+    // Replaced rather than cleared, so work still running for the old rows fills the old cache
+    private volatile LruCache<Cake, CharSequence[]> mFitted = new LruCache<>(MAX_CAKES);
+
+    // How the rows currently measure their text, null until a row has been laid out. Main thread only.
+    private TextFit mTitleFit;
+    private TextFit mDescriptionFit;
+
+    // The rows last seen on screen and the window fitted around them, in the list it was fitted for. Main thread only.
+    private int mFirstVisible;
+    private int mLastVisible;
+    private CakeCatalog mWindowCakes;
+    private int mWindowStart;
+    private int mWindowEnd = -1;
+
+    /**
+     * Takes the width and text style from a bound row, once it has been laid out. Returns true if
+     * they changed, in which case everything has to be fitted again. Main thread only.
+     */
+    boolean update(TextView title, TextView description) {
+        if (mTitleFit != null && mTitleFit.matches(title) && mDescriptionFit.matches(description)) {
+            return false;
+        }
+        TextFit titleFit = TextFit.of(title);
+        TextFit descriptionFit = TextFit.of(description);
+        if (titleFit == null || descriptionFit == null) {
+            // Not laid out yet
+            return false;
+        }
+        mTitleFit = titleFit;
+        mDescriptionFit = descriptionFit;
+        mFitted = new LruCache<>(MAX_CAKES);
+        mWindowCakes = null;
+        return true;
+    }
+
+    // The title and description fitted to the row, or null if the cake hasn't been fitted yet
+    CharSequence[] get(Cake cake) {
+        return mFitted.get(cake);
+    }
+
+    /**
+     * Fits the rows of the list around those last on screen that aren't cached yet in the background,
+     * e.g. for a new list. Does nothing until a row has been laid out. Main thread only.
+     */
+    void precompute(CakeCatalog cakes) {
+        precompute(cakes, mFirstVisible, mLastVisible);
+    }
+
+    /**
+     * As {@link #precompute(CakeCatalog)}, around the given rows now on screen. Once the list is
+     * fitted around them, only the rows the window moves onto are fitted.
+     */
+    void precompute(CakeCatalog cakes, int firstVisible, int lastVisible) {
+        if (firstVisible < 0 || lastVisible < firstVisible) {
+            return;
+        }
+        mFirstVisible = firstVisible;
+        mLastVisible = lastVisible;
+        if (mTitleFit == null) {
+            return;
+        }
+
+        int count = cakes.size();
+        boolean sameList = cakes == mWindowCakes;
+        if (sameList && (firstVisible - mWindowStart >= WINDOW_MARGIN || mWindowStart == 0)
+                && (mWindowEnd - lastVisible >= WINDOW_MARGIN || mWindowEnd == count - 1)) {
+            // Still well inside the window already fitted
+            return;
+        }
+
+        int windowStart = Math.max(0, firstVisible - WINDOW_ROWS);
+        int windowEnd = Math.min(count - 1, lastVisible + WINDOW_ROWS);
+        if (sameList && windowStart <= mWindowEnd && windowEnd >= mWindowStart) {
+            // Only the rows the window moved onto
+            submit(cakes, windowStart, mWindowStart - 1, mFitted, mTitleFit, mDescriptionFit);
+            submit(cakes, mWindowEnd + 1, windowEnd, mFitted, mTitleFit, mDescriptionFit);
+        } else {
+            submit(cakes, windowStart, windowEnd, mFitted, mTitleFit, mDescriptionFit);
+        }
+        mWindowCakes = cakes;
+        mWindowStart = windowStart;
+        mWindowEnd = windowEnd;
+    }
+
+    // Fits the rows from one position to another, inclusive, a task at a time
+    private void submit(final CakeCatalog cakes, final int fromPosition, final int toPosition,
+                        final LruCache<Cake, CharSequence[]> fitted, final TextFit titleFit,
+                        final TextFit descriptionFit) {
+        if (fromPosition > toPosition) {
+            return;
+        }
+        TaskScheduler.getInstance().submit(TaskScheduler.Pool.COMPUTE, TaskScheduler.Priority.BACKGROUND,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (fitted != mFitted) {
+                            // The rows changed size or style, a newer pass covers them
+                            return;
+                        }
+                        int taskEnd = Math.min(fromPosition + CAKES_PER_TASK - 1, toPosition);
+                        for (int position = fromPosition; position <= taskEnd; position++) {
+                            Cake cake = cakes.get(position);
+                            if (fitted.get(cake) == null) {
+                                fitted.put(cake, new CharSequence[]{
+                                        titleFit.fit(cake.getTitle()), descriptionFit.fit(cake.getDescription())});
+                            }
+                        }
+                        submit(cakes, taskEnd + 1, toPosition, fitted, titleFit, descriptionFit);
+                    }
+                });
+    }
+
+    /**
+     * The width and paint a TextView lays its text out with, copied so it can be used off the main thread.
+     */
+    private static final class TextFit {
+
+        private final TextPaint mPaint;
+        private final int mWidth;
+
+        private TextFit(TextPaint paint, int width) {
+            this.mPaint = paint;
+            this.mWidth = width;
+        }
+
+        static TextFit of(TextView view) {
+            int width = availableWidth(view);
+            return width > 0 ? new TextFit(new TextPaint(view.getPaint()), width) : null;
+        }
+
+        private static int availableWidth(TextView view) {
+            return view.getWidth() - view.getCompoundPaddingLeft() - view.getCompoundPaddingRight();
+        }
+
+        // Whether the view still lays its text out the same way, without allocating
+        boolean matches(TextView view) {
+            TextPaint paint = view.getPaint();
+            return availableWidth(view) == mWidth
+                    && paint.getTextSize() == mPaint.getTextSize()
+                    && paint.getTextScaleX() == mPaint.getTextScaleX()
+                    && paint.getTypeface() == mPaint.getTypeface();
+        }
+
+        CharSequence fit(String text) {
+            return text == null ? null : TextUtils.ellipsize(text, mPaint, mWidth, TextUtils.TruncateAt.END);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+
+/**
+ * Warms the image caches for the rows about to scroll into view, following the direction
+ * and speed the list is moving in.
+ * <p/>
+ * How far ahead it looks adapts to how fast the list is scrolling and how long images are
+ * currently taking to load. While the list is flinging nothing new is started and anything
+ * being prefetched for rows that have been flung past is cancelled.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class ScrollPrefetcher extends RecyclerView.OnScrollListener {
+
+    // Always look at least this far ahead, however slowly the list moves, unless the connection rules prefetching out
+    private static final int MIN_PREFETCH_ROWS = 2;
+    private static final int MAX_PREFETCH_ROWS = 20;
+
+    // Don't queue up more than the loader can get through in this long
+    private static final float MAX_LOOKAHEAD_SECONDS = 2f;
+
+    // Weight of the latest measurement in the smoothed scroll velocity
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final CakeAdapter mAdapter;
+    private final LinearLayoutManager mLayoutManager;
+    private final ImageLoader mImageLoader;
+    private final LoadingPolicy mLoadingPolicy;
+
+    // Prefetches started and not yet known to be done, by adapter position
+    private final SparseArray<ImageLoader.Prefetch> mPrefetches = new SparseArray<>();
+
+    private int mScrollState = RecyclerView.SCROLL_STATE_IDLE;
+
+    // Rows per second, positive when scrolling down the list
+    private float mVelocity;
+    private int mLastFirstVisibleItem = -1;
+    private long mLastFirstVisibleChange;
+
+    ScrollPrefetcher(CakeAdapter adapter, LinearLayoutManager layoutManager, ImageLoader imageLoader,
+                     LoadingPolicy loadingPolicy) {
+        this.mAdapter = adapter;
+        this.mLayoutManager = layoutManager;
+        this.mImageLoader = imageLoader;
+        this.mLoadingPolicy = loadingPolicy;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int scrollState) {
+        mScrollState = scrollState;
+        if (scrollState == RecyclerView.SCROLL_STATE_IDLE) {
+            // Settled, so there's no speed to lead by any more
+            mVelocity = 0;
+            updateFromLayout();
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        updateFromLayout();
+    }
+
+    // Reads the visible rows from the layout, as RecyclerView doesn't pass them to the listener
+    private void updateFromLayout() {
+        int firstVisibleItem = mLayoutManager.findFirstVisibleItemPosition();
+        int lastVisibleItem = mLayoutManager.findLastVisibleItemPosition();
+        if (firstVisibleItem == RecyclerView.NO_POSITION || lastVisibleItem == RecyclerView.NO_POSITION) {
+            return;
+        }
+        int visibleItemCount = lastVisibleItem - firstVisibleItem + 1;
+
+        long now = SystemClock.uptimeMillis();
+        if (mLastFirstVisibleItem < 0) {
+            mLastFirstVisibleItem = firstVisibleItem;
+            mLastFirstVisibleChange = now;
+        } else if (firstVisibleItem != mLastFirstVisibleItem) {
+            long elapsed = Math.max(1, now - mLastFirstVisibleChange);
+            float velocity = (firstVisibleItem - mLastFirstVisibleItem) * 1000f / elapsed;
+            mVelocity += (velocity - mVelocity) * VELOCITY_SMOOTHING;
+            mLastFirstVisibleItem = firstVisibleItem;
+            mLastFirstVisibleChange = now;
+        }
+
+        update(firstVisibleItem, visibleItemCount);
+    }
+
+    // Stops every prefetch, e.g. when the list goes away
+    void cancelAll() {
+        for (int i = 0; i < mPrefetches.size(); i++) {
+            mPrefetches.valueAt(i).cancel();
+        }
+        mPrefetches.clear();
+    }
+
+    /**
+     * Number of rows to prefetch: those that will scroll into view while one image loads,
+     * capped to what the loader can actually get through and to what the connection is worth
+     * spending on rows that may never be seen, which can be none at all.
+     */
+    int getPrefetchDepth() {
+        float loadSeconds = Math.max(mImageLoader.getAverageLoadMillis(), 1f) / 1000f;
+        int rowsWhileLoading = (int) Math.ceil(Math.abs(mVelocity) * loadSeconds);
+        int affordableRows = (int) (mImageLoader.getConcurrency() / loadSeconds * MAX_LOOKAHEAD_SECONDS);
+        int depth = Math.min(MIN_PREFETCH_ROWS + rowsWhileLoading, affordableRows);
+        depth = Math.max(MIN_PREFETCH_ROWS, Math.min(depth, MAX_PREFETCH_ROWS));
+        return Math.min(depth, mLoadingPolicy.getMaxPrefetchRows());
+    }
+
+    private void update(int firstVisibleItem, int visibleItemCount) {
+        int count = mAdapter.getItemCount();
+        int lastVisibleItem = firstVisibleItem + visibleItemCount - 1;
+        int depth = getPrefetchDepth();
+
+        // Rows just beyond the screen in the direction of travel
+        int windowStart;
+        int windowEnd;
+        if (mVelocity >= 0) {
+            windowStart = lastVisibleItem + 1;
+            windowEnd = Math.min(count - 1, lastVisibleItem + depth);
+        } else {
+            windowStart = Math.max(0, firstVisibleItem - depth);
+            windowEnd = firstVisibleItem - 1;
+        }
+
+        // Anything outside the screen and the window has been flung past or is no longer ahead
+        int keepStart = Math.min(firstVisibleItem, windowStart);
+        int keepEnd = Math.max(lastVisibleItem, windowEnd);
+        for (int i = mPrefetches.size() - 1; i >= 0; i--) {
+            int position = mPrefetches.keyAt(i);
+            ImageLoader.Prefetch prefetch = mPrefetches.valueAt(i);
+            if (prefetch.isDone()) {
+                mPrefetches.removeAt(i);
+            } else if (position < keepStart || position > keepEnd) {
+                prefetch.cancel();
+                mPrefetches.removeAt(i);
+            }
+        }
+
+        // Rows skipped during a fling are never started, the loader is left to the rows the fling lands on
+        if (mScrollState == RecyclerView.SCROLL_STATE_SETTLING) {
+            return;
+        }
+
+        for (int position = windowStart; position <= windowEnd; position++) {
+            if (mPrefetches.get(position) == null) {
+                ImageLoader.Prefetch prefetch = mImageLoader.prefetch(mAdapter.getItem(position).getImage());
+                if (prefetch != null) {
+                    mPrefetches.put(position, prefetch);
+                }
+            }
+        }
+    }
+}
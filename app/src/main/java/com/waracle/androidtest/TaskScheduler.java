@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one place all background work in the app runs.
+ * <p/>
+ * Each kind of resource has its own bounded pool, so a feed refresh never queues behind
+ * image downloads and slow network work never holds up decoding. Within a pool work for
+ * visible rows runs before prefetches, and prefetches before background sync, in the order
+ * it was submitted.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class TaskScheduler {
+
+    // Resource a task mostly waits on, each with its own threads
+    enum Pool {
+        // The load, which waits on its feeds
+        FEED_FETCH(1),
+        // The feeds a load downloads in parallel, each on a thread of its own and never behind the load waiting on them
+        FEED_SOURCE(4),
+        IMAGE_FETCH(3),
+        IMAGE_DECODE(2),
+        DISK_IO(1),
+        // Work that only needs the CPU, e.g. working out what changed in the list
+        COMPUTE(1);
+
+        final int mDefaultThreads;
+
+        Pool(int defaultThreads) {
+            this.mDefaultThreads = defaultThreads;
+        }
+    }
+
+    // Lanes within a pool, in the order they are served
+    enum Priority {
+        VISIBLE,
+        PREFETCH,
+        BACKGROUND
+    }
+
+    /**
+     * Handle on a submitted task.
+     */
+    interface TaskHandle {
+
+        // Removes the task if it hasn't started, otherwise it is left to finish
+        void cancel();
+
+        boolean isCancelled();
+
+        boolean isDone();
+
+        // Moves a task that hasn't started yet into another lane
+        void setPriority(Priority priority);
+    }
+
+    private static final String TAG = TaskScheduler.class.getSimpleName();
+
+    private static TaskScheduler sInstance;
+
+    private final Map<Pool, ThreadPoolExecutor> mExecutors = new EnumMap<>(Pool.class);
+
+    // Keeps tasks in the same lane in the order they were submitted
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private TaskScheduler() {
+        for (Pool pool : Pool.values()) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(pool.mDefaultThreads, pool.mDefaultThreads,
+                    30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new PoolThreadFactory(pool));
+            // Idle pools shouldn't keep threads around
+            executor.allowCoreThreadTimeOut(true);
+            mExecutors.put(pool, executor);
+        }
+    }
+
+    static synchronized TaskScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TaskScheduler();
+        }
+        return sInstance;
+    }
+
+    TaskHandle submit(Pool pool, Priority priority, Runnable task) {
+        ScheduledTask scheduledTask = new ScheduledTask(mExecutors.get(pool), priority, task);
+        mExecutors.get(pool).execute(scheduledTask);
+        return scheduledTask;
+    }
+
+    // Changes how many tasks a pool runs at once, e.g. fewer image downloads on a slow connection
+    void setConcurrency(Pool pool, int threads) {
+        ThreadPoolExecutor executor = mExecutors.get(pool);
+        int count = Math.max(1, threads);
+        synchronized (executor) {
+            if (count > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(count);
+                executor.setCorePoolSize(count);
+            } else {
+                executor.setCorePoolSize(count);
+                executor.setMaximumPoolSize(count);
+            }
+        }
+    }
+
+    int getConcurrency(Pool pool) {
+        return mExecutors.get(pool).getMaximumPoolSize();
+    }
+
+    // Number of tasks waiting to start in the pool
+    int getQueueDepth(Pool pool) {
+        return mExecutors.get(pool).getQueue().size();
+    }
+
+    // Number of tasks waiting to start in one lane of the pool
+    int getQueueDepth(Pool pool, Priority priority) {
+        int depth = 0;
+        for (Runnable runnable : mExecutors.get(pool).getQueue()) {
+            if (runnable instanceof ScheduledTask && ((ScheduledTask) runnable).mPriority == priority) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    int getActiveCount(Pool pool) {
+        return mExecutors.get(pool).getActiveCount();
+    }
+
+    long getCompletedCount(Pool pool) {
+        return mExecutors.get(pool).getCompletedTaskCount();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("TaskScheduler[");
+        for (Pool pool : Pool.values()) {
+            builder.append(pool).append(": active=").append(getActiveCount(pool))
+                    .append(" queued=").append(getQueueDepth(pool))
+                    .append(" completed=").append(getCompletedCount(pool)).append("; ");
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * A task queued in one of the pools, ordered by lane and then by submission. Whatever a task
+     * throws is caught by the FutureTask and nobody waits on its result, so it is reported here
+     * rather than vanishing. Tasks must still leave their callers in a finished state themselves.
+     */
+    private class ScheduledTask extends FutureTask<Void> implements TaskHandle, Comparable<ScheduledTask> {
+
+        private final ThreadPoolExecutor mExecutor;
+        private volatile Priority mPriority;
+        private volatile long mSequenceNumber;
+
+        ScheduledTask(ThreadPoolExecutor executor, Priority priority, Runnable task) {
+            super(task, null);
+            this.mExecutor = executor;
+            this.mPriority = priority;
+            this.mSequenceNumber = mSequence.getAndIncrement();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancel(false)) {
+                // Don't leave it taking up a place in the queue
+                mExecutor.remove(this);
+            }
+        }
+
+        @Override
+        public void setPriority(Priority priority) {
+            if (priority == mPriority || isDone()) {
+                return;
+            }
+            // The queue only orders on insertion, so the task has to be taken out to move lanes
+            if (mExecutor.getQueue().remove(this)) {
+                mPriority = priority;
+                mSequenceNumber = mSequence.getAndIncrement();
+                mExecutor.execute(this);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                get();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Task failed on " + Thread.currentThread().getName(), e.getCause());
+                Metrics.getInstance().trace("Task failed on " + Thread.currentThread().getName() + ": " + e.getCause());
+            } catch (InterruptedException e) {
+                // Can't happen, the task has already finished
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            int byPriority = mPriority.compareTo(other.mPriority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return mSequenceNumber < other.mSequenceNumber ? -1 : (mSequenceNumber == other.mSequenceNumber ? 0 : 1);
+        }
+    }
+
+    /**
+     * Names the threads after their pool and keeps them from competing with the UI thread.
+     */
+    private static class PoolThreadFactory implements ThreadFactory {
+
+        private final Pool mPool;
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        PoolThreadFactory(Pool pool) {
+            this.mPool = pool;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mPool.name().toLowerCase() + "-" + mThreadCount.incrementAndGet());
+        }
+    }
+}
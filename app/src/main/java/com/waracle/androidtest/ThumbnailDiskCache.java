@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.waracle.androidtest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Size bounded LRU cache of the already resized and re-encoded cake thumbnails,
+ * keyed by image url and target size, so a second launch binds rows from small
+ * local files without downloading or decoding the full size images.
+ * <p/>
+ * Every write, read and removal is appended to a journal that is replayed on open, so the
+ * LRU order survives restarts and files left half written by a crash are thrown away.
+ *
+ * @author michaelakakpo
+ * @version 18/10/26.
+ */
+class ThumbnailDiskCache {
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String JOURNAL_HEADER = "thumbnail-journal 1";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Journal operations
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    // Rewrite the journal once it holds this many lines that no longer affect the cache
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+
+    // Key to file size in least to most recently used order
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private long mSizeBytes;
+    private int mRedundantOpCount;
+    private Writer mJournalWriter;
+
+    /**
+     * Nothing is read from disk until the cache is first used, so it is safe to create on the main thread.
+     */
+    ThumbnailDiskCache(File directory, long maxSizeBytes) {
+        this.mDirectory = directory;
+        this.mMaxSizeBytes = maxSizeBytes;
+    }
+
+    // File safe key for an image decoded at the given target size
+    static String key(String url, int width, int height) {
+        String source = url + '@' + width + 'x' + height;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(source.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // MD5 and UTF-8 are always available, fall back to something file safe anyway
+            return String.valueOf(source.hashCode() & 0xffffffffL);
+        }
+    }
+
+    /**
+     * Returns the key of the first of the {width, height} sizes a thumbnail of the url is stored at,
+     * or null if it isn't stored at any of them. Doesn't count as a read of that thumbnail.
+     */
+    synchronized String findKey(String url, int[][] sizes) throws IOException {
+        openIfNeeded();
+        for (int[] size : sizes) {
+            String key = key(url, size[0], size[1]);
+            if (mEntries.containsKey(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the stored thumbnail for the key, or null if there isn't one.
+     */
+    synchronized byte[] get(String key) throws IOException {
+        openIfNeeded();
+        // Looked up with get() so the entry moves to the most recently used end, containsKey() wouldn't
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+
+        File file = new File(mDirectory, key);
+        byte[] data;
+        try {
+            data = readFully(file);
+        } catch (IOException e) {
+            // Deleted from under us, forget it rather than failing every time
+            remove(key);
+            return null;
+        }
+
+        appendToJournal(READ + ' ' + key);
+        mRedundantOpCount++;
+        compactIfNeeded();
+        return data;
+    }
+
+    /**
+     * Stores the thumbnail for the key, evicting the least recently used thumbnails beyond the size limit.
+     */
+    synchronized void put(String key, byte[] data) throws IOException {
+        openIfNeeded();
+
+        // Written aside first so a crash never leaves a truncated thumbnail under the real name
+        File tempFile = new File(mDirectory, key + TEMP_SUFFIX);
+        OutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(new File(mDirectory, key))) {
+            tempFile.delete();
+            throw new IOException("Unable to commit thumbnail " + key);
+        }
+
+        Long previousSize = mEntries.put(key, (long) data.length);
+        if (previousSize != null) {
+            mSizeBytes -= previousSize;
+            mRedundantOpCount++;
+        }
+        mSizeBytes += data.length;
+        appendToJournal(CLEAN + ' ' + key + ' ' + data.length);
+
+        trimToSize(mMaxSizeBytes);
+        compactIfNeeded();
+    }
+
+    synchronized void remove(String key) throws IOException {
+        openIfNeeded();
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            new File(mDirectory, key).delete();
+            mSizeBytes -= size;
+            appendToJournal(REMOVE + ' ' + key);
+            mRedundantOpCount += 2;
+            compactIfNeeded();
+        }
+    }
+
+    // Evicts the least recently used thumbnails until the cache is no bigger than the given size
+    synchronized void trimToSize(long maxSizeBytes) throws IOException {
+        openIfNeeded();
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSizeBytes -= eldest.getValue();
+            appendToJournal(REMOVE + ' ' + eldest.getKey());
+            mRedundantOpCount += 2;
+        }
+    }
+
+    synchronized long getSizeBytes() throws IOException {
+        openIfNeeded();
+        return mSizeBytes;
+    }
+
+    synchronized int getEntryCount() throws IOException {
+        openIfNeeded();
+        return mEntries.size();
+    }
+
+    private void openIfNeeded() throws IOException {
+        if (mJournalWriter != null) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+
+        File journalFile = new File(mDirectory, JOURNAL_FILE);
+        if (journalFile.exists()) {
+            try {
+                readJournal(journalFile);
+            } catch (IOException e) {
+                // Unreadable journal, start again from an empty cache
+                deleteContents();
+            }
+        }
+        removeUntrackedFiles();
+        rewriteJournal();
+        trimToSize(mMaxSizeBytes);
+    }
+
+    // Replays the journal to rebuild the entries and their LRU order
+    private void readJournal(File journalFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+        try {
+            if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && CLEAN.equals(parts[0])) {
+                    Long size = parseSize(parts[2]);
+                    if (size != null) {
+                        mEntries.put(parts[1], size);
+                    }
+                } else if (parts.length == 2 && READ.equals(parts[0])) {
+                    // Touch the entry so it moves to the most recently used end
+                    mEntries.get(parts[1]);
+                } else if (parts.length == 2 && REMOVE.equals(parts[0])) {
+                    mEntries.remove(parts[1]);
+                }
+                // Anything else is a line cut short by a crash and is ignored
+            }
+            mRedundantOpCount = lineCount - mEntries.size();
+        } finally {
+            reader.close();
+        }
+
+        // Drop entries whose file went missing or doesn't match what was journalled
+        mSizeBytes = 0;
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(mDirectory, entry.getKey());
+            if (!file.isFile() || file.length() != entry.getValue()) {
+                file.delete();
+                iterator.remove();
+            } else {
+                mSizeBytes += entry.getValue();
+            }
+        }
+    }
+
+    // Deletes temp files and thumbnails the journal doesn't know about, left behind by a crash
+    private void removeUntrackedFiles() {
+        Set<String> tracked = new HashSet<>(mEntries.keySet());
+        tracked.add(JOURNAL_FILE);
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!tracked.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    private void deleteContents() {
+        mEntries.clear();
+        mSizeBytes = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    // Writes a journal holding just the current entries, in LRU order, and swaps it into place
+    private void rewriteJournal() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.close();
+            mJournalWriter = null;
+        }
+
+        File tempFile = new File(mDirectory, JOURNAL_FILE_TEMP);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+        try {
+            writer.write(JOURNAL_HEADER + '\n');
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+
+        File journalFile = new File(mDirectory, JOURNAL_FILE);
+        if (!tempFile.renameTo(journalFile)) {
+            throw new IOException("Unable to replace " + journalFile);
+        }
+        mJournalWriter = new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8");
+        mRedundantOpCount = 0;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+            rewriteJournal();
+        }
+    }
+
+    private void appendToJournal(String line) throws IOException {
+        mJournalWriter.write(line + '\n');
+        mJournalWriter.flush();
+    }
+
+    private static Long parseSize(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = inputStream.read(data, offset, data.length - offset);
+                if (read == -1) {
+                    throw new IOException("Thumbnail shorter than expected " + file);
+                }
+                offset += read;
+            }
+            return data;
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.waracle.androidtest;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the feed server, serving a synthetic feed of any size and images with a
+ * chosen size and latency, so large feeds can be measured offline.
+ * <p/>
+ * The feed lists cakeCount entries, of which the given fraction repeat a cake listed earlier.
+ * It is written as it is generated, so even the largest feeds are never held in memory. Images
+ * are uncompressed BMPs, which every BitmapFactory can decode.
+ */
+class StandInCakeServer implements Runnable {
+
+    static final String FEED_PATH = "/cakes.json";
+    private static final String IMAGE_PATH = "/images/";
+
+    private final int mCakeCount;
+    private final int mDistinctCount;
+    private final int mImageSizePx;
+    private final long mImageLatencyMillis;
+
+    private final ServerSocket mServerSocket;
+    private final AtomicInteger mFeedRequests = new AtomicInteger();
+    private final AtomicInteger mImageRequests = new AtomicInteger();
+
+    /**
+     * @param cakeCount          entries in the feed
+     * @param duplicationRatio   fraction of the entries, from 0 to 1, that repeat an earlier cake
+     * @param imageSizePx        width and height of every image
+     * @param imageLatencyMillis how long each image request waits before it is answered
+     */
+    StandInCakeServer(int cakeCount, float duplicationRatio, int imageSizePx, long imageLatencyMillis)
+            throws IOException {
+        this.mCakeCount = cakeCount;
+        this.mDistinctCount = Math.max(1, Math.round(cakeCount * (1 - duplicationRatio)));
+        this.mImageSizePx = imageSizePx;
+        this.mImageLatencyMillis = imageLatencyMillis;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(this, "stand-in-cake-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    URL getFeedUrl() throws IOException {
+        return new URL(getBaseUrl() + FEED_PATH);
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    // Different cakes in the feed, the rest of the entries repeat them
+    int getDistinctCount() {
+        return mDistinctCount;
+    }
+
+    int getFeedRequestCount() {
+        return mFeedRequests.get();
+    }
+
+    int getImageRequestCount() {
+        return mImageRequests.get();
+    }
+
+    void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    @Override
+    public void run() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Closed by close()
+                return;
+            }
+            // A thread per connection, so slow images don't hold up the feed or each other
+            Thread connection = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handle(socket);
+                    } catch (IOException e) {
+                        // Client went away
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Nothing more to do with it
+                        }
+                    }
+                }
+            }, "stand-in-cake-connection");
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        String requestLine = reader.readLine();
+        String line;
+        while ((line = reader.readLine()) != null && line.length() > 0) {
+            // Headers are not needed
+        }
+        String[] request = requestLine != null ? requestLine.split(" ") : new String[0];
+        String path = request.length > 1 ? request[1] : "";
+
+        OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        if (path.equals(FEED_PATH)) {
+            mFeedRequests.incrementAndGet();
+            // No length, the end of the feed is the end of the connection
+            writeHeaders(outputStream, "200 OK", "application/json", -1);
+            writeFeed(new OutputStreamWriter(outputStream, "UTF-8"));
+        } else if (path.startsWith(IMAGE_PATH)) {
+            mImageRequests.incrementAndGet();
+            sleep(mImageLatencyMillis);
+            byte[] image = bitmap(path.hashCode());
+            writeHeaders(outputStream, "200 OK", "image/bmp", image.length);
+            outputStream.write(image);
+        } else {
+            writeHeaders(outputStream, "404 Not Found", "text/plain", 0);
+        }
+        outputStream.flush();
+    }
+
+    private static void writeHeaders(OutputStream outputStream, String status, String contentType, long length)
+            throws IOException {
+        StringBuilder headers = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n")
+                .append("Content-Type: ").append(contentType).append("\r\n")
+                .append("Connection: close\r\n");
+        if (length >= 0) {
+            headers.append("Content-Length: ").append(length).append("\r\n");
+        }
+        outputStream.write(headers.append("\r\n").toString().getBytes("UTF-8"));
+    }
+
+    private void writeFeed(Writer writer) throws IOException {
+        writer.write('[');
+        for (int i = 0; i < mCakeCount; i++) {
+            // The first entries introduce every cake, the rest cycle through them again
+            int cake = i % mDistinctCount;
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write("{\"title\":\"Stand-in cake " + cake + "\",\"desc\":\"Layer " + (cake % 7)
+                    + " of a cake baked for measuring feed " + cake + "\",\"image\":\"" + getBaseUrl() + IMAGE_PATH
+                    + cake + ".bmp\"}");
+        }
+        writer.write(']');
+        writer.flush();
+    }
+
+    // A 24 bit BMP of a single colour picked from the seed
+    private byte[] bitmap(int seed) {
+        int rowBytes = (mImageSizePx * 3 + 3) & ~3;
+        int pixelBytes = rowBytes * mImageSizePx;
+        byte[] bmp = new byte[54 + pixelBytes];
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        putInt(bmp, 2, bmp.length);
+        putInt(bmp, 10, 54);
+        putInt(bmp, 14, 40);
+        putInt(bmp, 18, mImageSizePx);
+        putInt(bmp, 22, mImageSizePx);
+        bmp[26] = 1;
+        bmp[28] = 24;
+        putInt(bmp, 34, pixelBytes);
+        for (int y = 0; y < mImageSizePx; y++) {
+            for (int x = 0; x < mImageSizePx; x++) {
+                int offset = 54 + y * rowBytes + x * 3;
+                bmp[offset] = (byte) seed;
+                bmp[offset + 1] = (byte) (seed >> 8);
+                bmp[offset + 2] = (byte) (seed >> 16);
+            }
+        }
+        return bmp;
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.waracle.androidtest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link CakeCatalog} shares repeated cakes without changing the list they make up.
+ */
+public class CakeCatalogTest {
+
+    @Test
+    public void repeatedCakesShareOneRecord() {
+        List<Cake> feed = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            feed.add(cake("Lemon cheesecake", "A cheesecake made of lemon", "https://example.com/lemon.jpg"));
+            feed.add(cake("Banana cake", "Donkey kong's favourite", "https://example.com/banana.jpg"));
+        }
+
+        CakeCatalog catalog = CakeCatalog.copyOf(feed);
+
+        assertEquals(feed, catalog);
+        assertEquals(2, catalog.getDistinctCount());
+        assertSame(catalog.get(0), catalog.get(2));
+        assertSame(catalog.get(1).getTitle(), catalog.get(199).getTitle());
+        assertTrue(catalog.getBytesSaved() > 0);
+    }
+
+    @Test
+    public void earlierCatalogIsUnaffectedByLaterAdds() {
+        CakeCatalog.Builder builder = new CakeCatalog.Builder();
+        builder.add(cake("Victoria sponge", "Sponge with jam", "https://example.com/victoria.jpg"));
+        CakeCatalog first = builder.build();
+
+        for (int i = 0; i < 50; i++) {
+            builder.add(cake("Carrot cake " + i, "Bugs bunnys favourite", "https://example.com/carrot.jpg"));
+        }
+        CakeCatalog second = builder.build();
+
+        assertEquals(1, first.size());
+        assertEquals("Victoria sponge", first.get(0).getTitle());
+        assertEquals(51, second.size());
+        assertEquals("Carrot cake 49", second.get(50).getTitle());
+        // The carrot cakes only add their own titles, the description and url are shared
+        assertEquals(3 + 50 + 2, second.getStringCount());
+    }
+
+    private static Cake cake(String title, String description, String image) {
+        Cake cake = new Cake();
+        cake.setTitle(title);
+        cake.setDescription(description);
+        cake.setImage(image);
+        return cake;
+    }
+}
@@ -0,0 +1,71 @@
+package com.waracle.androidtest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link CakeFeedParser} delivers every well formed cake, even from a feed that isn't.
+ */
+public class CakeFeedParserTest {
+
+    private static final String LEMON = "{\"title\":\"Lemon cheesecake\",\"desc\":\"A cheesecake made of lemon\","
+            + "\"image\":\"https://example.com/lemon.jpg\"}";
+    private static final String BANANA = "{\"title\":\"Banana cake\",\"desc\":\"Donkey kong's favourite\","
+            + "\"image\":\"https://example.com/banana.jpg\"}";
+
+    @Test
+    public void dropsMalformedEntriesAndKeepsTheRest() throws IOException {
+        String feed = "[" + LEMON + ","
+                // Missing its image
+                + "{\"title\":\"Victoria sponge\",\"desc\":\"Sponge with jam\"},"
+                // Not an object at all
+                + "\"cake\", 42, null, [" + LEMON + "],"
+                // A field of the wrong type, and an unknown nested one that is skipped
+                + "{\"title\":{\"en\":\"Carrot cake\"},\"desc\":\"Bugs bunnys favourite\",\"image\":\"x\"},"
+                + "{\"extra\":{\"tags\":[\"fruit\",{\"a\":[]}]}," + BANANA.substring(1) + "]";
+        List<Cake> cakes = new ArrayList<>();
+
+        int cakeCount = CakeFeedParser.parse(new StringReader(feed), collectInto(cakes));
+
+        assertEquals(2, cakeCount);
+        assertEquals("Lemon cheesecake", cakes.get(0).getTitle());
+        assertEquals("Banana cake", cakes.get(1).getTitle());
+        assertEquals("https://example.com/banana.jpg", cakes.get(1).getImage());
+    }
+
+    @Test
+    public void truncatedFeedThrowsAfterDeliveringTheCakesBeforeIt() {
+        String feed = "[" + LEMON + "," + BANANA + "," + BANANA.substring(0, 30);
+        List<Cake> cakes = new ArrayList<>();
+
+        try {
+            CakeFeedParser.parse(new JsonPullReaderTest.ChunkedReader(feed, 16), collectInto(cakes));
+            fail("Expected the truncated feed to throw");
+        } catch (IOException expected) {
+            // The cakes read before the connection dropped are still there
+        }
+        assertEquals(2, cakes.size());
+        assertEquals("Banana cake", cakes.get(1).getTitle());
+    }
+
+    @Test(expected = IOException.class)
+    public void feedCutAfterItsLastCakeStillThrows() throws IOException {
+        CakeFeedParser.parse(new StringReader("[" + LEMON), collectInto(new ArrayList<Cake>()));
+    }
+
+    private static CakeFeedParser.Listener collectInto(final List<Cake> cakes) {
+        return new CakeFeedParser.Listener() {
+            @Override
+            public void onCake(Cake cake) {
+                cakes.add(cake);
+            }
+        };
+    }
+}
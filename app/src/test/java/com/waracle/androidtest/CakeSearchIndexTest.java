@@ -0,0 +1,66 @@
+package com.waracle.androidtest;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link CakeSearchIndex} matches prefixes of every query word and ranks title matches first.
+ */
+public class CakeSearchIndexTest {
+
+    @Test
+    public void matchesPrefixesOfEveryWordBestFirst() {
+        CakeCatalog.Builder builder = new CakeCatalog.Builder();
+        builder.add(cake("Banana cake", "Donkey kong's favourite", "https://example.com/banana.jpg"));
+        builder.add(cake("Birthday cake", "A yearly treat with chocolate sprinkles", "https://example.com/birthday.jpg"));
+        builder.add(cake("Chocolate cake", "Rich and dark", "https://example.com/chocolate.jpg"));
+        builder.add(cake("Banana cake", "Donkey kong's favourite", "https://example.com/banana.jpg"));
+        CakeCatalog cakes = builder.build();
+        CakeSearchIndex index = new CakeSearchIndex();
+
+        List<Cake> results = index.search(cakes, "choc");
+        assertEquals(2, results.size());
+        // In the title of the one, the description of the other
+        assertEquals("Chocolate cake", results.get(0).getTitle());
+        assertEquals("Birthday cake", results.get(1).getTitle());
+
+        // Every word has to match, and a repeated cake is only found once
+        assertEquals(1, index.search(cakes, "CAKE  donk").size());
+        assertEquals(0, index.search(cakes, "banana dark").size());
+        assertSame(cakes, index.search(cakes, "  "));
+    }
+
+    @Test
+    public void indexesOnlyWhatWasAddedSinceTheLastUpdate() {
+        CakeCatalog.Builder builder = new CakeCatalog.Builder();
+        builder.add(cake("Lemon cheesecake", "A cheesecake made of lemon", "https://example.com/lemon.jpg"));
+        CakeSearchIndex index = new CakeSearchIndex();
+        index.update(builder.build());
+        int words = index.getWordCount();
+
+        builder.add(cake("Carrot cake", "Bugs bunnys favourite", "https://example.com/carrot.jpg"));
+        CakeCatalog grown = builder.build();
+        index.update(grown);
+
+        assertTrue(index.getWordCount() > words);
+        assertEquals("Carrot cake", index.search(grown, "bug").get(0).getTitle());
+        assertEquals(1, index.search(grown, "lemon").size());
+
+        // A different list replaces what was indexed
+        CakeCatalog other = CakeCatalog.copyOf(grown.subList(1, 2));
+        assertEquals(0, index.search(other, "lemon").size());
+    }
+
+    private static Cake cake(String title, String description, String image) {
+        Cake cake = new Cake();
+        cake.setTitle(title);
+        cake.setDescription(description);
+        cake.setImage(image);
+        return cake;
+    }
+}
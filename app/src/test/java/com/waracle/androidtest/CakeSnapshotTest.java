@@ -0,0 +1,89 @@
+package com.waracle.androidtest;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips {@link CakeSnapshot} through bytes and a mapped file, and checks damaged snapshots are refused.
+ */
+public class CakeSnapshotTest {
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        CakeCatalog cakes = feed();
+
+        CakeSnapshot snapshot = CakeSnapshot.read(new CakeSnapshot(cakes, 1234L).toByteArray());
+
+        assertEquals(cakes, snapshot.getCakes());
+        assertEquals(1234L, snapshot.getSavedAtMillis());
+        assertNull(snapshot.getCakes().get(2).getDescription());
+        // Repeated entries still share one record after the round trip
+        assertSame(snapshot.getCakes().get(0), snapshot.getCakes().get(3));
+    }
+
+    @Test
+    public void mapsSnapshotFile() throws IOException {
+        File file = File.createTempFile("cakes", ".snapshot");
+        try {
+            new CakeSnapshot(feed(), 0).writeTo(file);
+            assertEquals(feed(), CakeSnapshot.map(file).getCakes());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void refusesCorruptSnapshot() {
+        byte[] data = new CakeSnapshot(feed(), 0).toByteArray();
+        // The first of the numbers, which are checked up front
+        data[CakeSnapshot.HEADER_BYTES] ^= 1;
+        try {
+            CakeSnapshot.read(data);
+            fail("Corrupt snapshot was read");
+        } catch (IOException expected) {
+            // Checksum caught it
+        }
+    }
+
+    @Test
+    public void damagedPageOfStringsOnlyLosesItsOwnText() throws IOException {
+        CakeCatalog.Builder builder = new CakeCatalog.Builder();
+        // Enough text to fill several pages
+        for (int i = 0; i < 200; i++) {
+            builder.add(cake("Cake " + i, "Description of cake number " + i, "https://example.com/" + i + ".jpg"));
+        }
+        CakeCatalog cakes = builder.build();
+        byte[] data = new CakeSnapshot(cakes, 0).toByteArray();
+        data[data.length - 1] ^= 1;
+
+        // Nothing of the strings is checked until a cake is decoded
+        CakeCatalog read = CakeSnapshot.read(data).getCakes();
+        assertEquals(200, read.size());
+        assertEquals(cakes.get(0), read.get(0));
+        assertNull(read.get(199).getImage());
+    }
+
+    private static CakeCatalog feed() {
+        CakeCatalog.Builder builder = new CakeCatalog.Builder();
+        builder.add(cake("Lemon cheesecake", "A cheesecake made of lemon", "https://example.com/lemon.jpg"));
+        builder.add(cake("Gâteau", "Crème pâtissière", "https://example.com/gateau.jpg"));
+        builder.add(cake("Plain sponge", null, "https://example.com/sponge.jpg"));
+        builder.add(cake("Lemon cheesecake", "A cheesecake made of lemon", "https://example.com/lemon.jpg"));
+        return builder.build();
+    }
+
+    private static Cake cake(String title, String description, String image) {
+        Cake cake = new Cake();
+        cake.setTitle(title);
+        cake.setDescription(description);
+        cake.setImage(image);
+        return cake;
+    }
+}
@@ -0,0 +1,210 @@
+package com.waracle.androidtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Exercises {@link FeedCache} against a local stand-in for the feed server.
+ */
+public class FeedCacheTest {
+
+    private static final String FEED = "[{\"title\":\"Lemon cheesecake\",\"desc\":\"A cheesecake made of lemon\",\"image\":\"https://example.com/lemon.jpg\"}]";
+    private static final String ETAG = "\"v1\"";
+
+    private StandInServer mServer;
+    private File mCacheDir;
+    private URL mFeedUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInServer();
+        mCacheDir = File.createTempFile("feed-cache", "");
+        mCacheDir.delete();
+        mCacheDir.mkdirs();
+        mFeedUrl = new URL("http://127.0.0.1:" + mServer.getPort() + "/cake.json");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mCacheDir.delete();
+    }
+
+    @Test
+    public void revalidatesWithETagAndServesCachedCopyOn304() throws IOException {
+        FeedCache feedCache = new FeedCache(mCacheDir, 0);
+
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl)));
+        assertNull(mServer.getRequestHeaders().get(0).get("if-none-match"));
+
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl)));
+        assertEquals(2, mServer.getRequestHeaders().size());
+        assertEquals(ETAG, mServer.getRequestHeaders().get(1).get("if-none-match"));
+    }
+
+    @Test
+    public void skipsNetworkWhileCopyIsFresh() throws IOException {
+        FeedCache feedCache = new FeedCache(mCacheDir, 60 * 1000);
+
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl)));
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl)));
+
+        assertEquals(1, mServer.getRequestHeaders().size());
+    }
+
+    @Test
+    public void revalidateAsksServerEvenWhileCopyIsFresh() throws IOException {
+        FeedCache feedCache = new FeedCache(mCacheDir, 60 * 1000);
+
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl)));
+        assertEquals(FEED, readFully(feedCache.revalidate(mFeedUrl)));
+
+        assertEquals(2, mServer.getRequestHeaders().size());
+        assertEquals(ETAG, mServer.getRequestHeaders().get(1).get("if-none-match"));
+    }
+
+    @Test
+    public void servesStaleCopyWithoutAskingWhenRevalidationNotAllowed() throws IOException {
+        FeedCache feedCache = new FeedCache(mCacheDir, 0);
+
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl, false)));
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl, false)));
+
+        assertEquals(1, mServer.getRequestHeaders().size());
+    }
+
+    @Test
+    public void doesNotCachePartiallyReadBody() throws IOException {
+        FeedCache feedCache = new FeedCache(mCacheDir, 60 * 1000);
+
+        InputStream inputStream = feedCache.open(mFeedUrl);
+        inputStream.read(new byte[4]);
+        inputStream.close();
+
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl)));
+        assertEquals(2, mServer.getRequestHeaders().size());
+        assertNull(mServer.getRequestHeaders().get(1).get("if-none-match"));
+    }
+
+    @Test
+    public void cachesEachFeedSeparately() throws IOException {
+        FeedCache feedCache = new FeedCache(mCacheDir, 60 * 1000);
+        URL otherFeedUrl = new URL("http://127.0.0.1:" + mServer.getPort() + "/more-cakes.json");
+
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl)));
+        assertEquals(FEED, readFully(feedCache.open(otherFeedUrl)));
+        assertEquals(FEED, readFully(feedCache.open(mFeedUrl)));
+        assertEquals(FEED, readFully(feedCache.open(otherFeedUrl)));
+
+        assertEquals(2, mServer.getRequestHeaders().size());
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        try {
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return outputStream.toString("UTF-8");
+    }
+
+    /**
+     * Serves the feed with an ETag, answering 304 when the client already has it.
+     */
+    private static class StandInServer implements Runnable {
+
+        private final ServerSocket mServerSocket;
+        private final List<Map<String, String>> mRequestHeaders =
+                Collections.synchronizedList(new ArrayList<Map<String, String>>());
+
+        StandInServer() throws IOException {
+            mServerSocket = new ServerSocket(0);
+            Thread thread = new Thread(this, "stand-in-feed-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        List<Map<String, String>> getRequestHeaders() {
+            return mRequestHeaders;
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    Socket socket = mServerSocket.accept();
+                    try {
+                        handle(socket);
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // Socket closed by tearDown
+                }
+            }
+        }
+
+        private void handle(Socket socket) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            Map<String, String> headers = new HashMap<>();
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+            mRequestHeaders.add(headers);
+
+            OutputStream outputStream = socket.getOutputStream();
+            if (ETAG.equals(headers.get("if-none-match"))) {
+                outputStream.write(("HTTP/1.1 304 Not Modified\r\nETag: " + ETAG
+                        + "\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+            } else {
+                byte[] body = FEED.getBytes("UTF-8");
+                outputStream.write(("HTTP/1.1 200 OK\r\nETag: " + ETAG + "\r\nContent-Type: application/json"
+                        + "\r\nContent-Length: " + body.length + "\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+                outputStream.write(body);
+            }
+            outputStream.flush();
+        }
+    }
+}
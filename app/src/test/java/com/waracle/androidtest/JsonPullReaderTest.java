@@ -0,0 +1,136 @@
+package com.waracle.androidtest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link JsonPullReader} reads the same tokens however the characters arrive.
+ */
+public class JsonPullReaderTest {
+
+    // Characters the reader buffers per read, so padding can put an escape right on the edge
+    private static final int BUFFER_SIZE = 1024;
+
+    @Test
+    public void escapesSplitAcrossBufferRefills() throws IOException {
+        String escaped = "\\u00e9clair \\\"fresh\\\"\\n\\t\\/\\\\ \\u2603";
+        String expected = "éclair \"fresh\"\n\t/\\ ☃";
+
+        // Every escape starts at every offset from the end of the first buffer
+        for (int padding = BUFFER_SIZE - 20; padding <= BUFFER_SIZE; padding++) {
+            String json = "[\"" + repeat('x', padding) + "\", \"" + escaped + "\"]";
+            JsonPullReader jsonReader = new JsonPullReader(new StringReader(json));
+            jsonReader.beginArray();
+            assertEquals(padding, jsonReader.nextString().length());
+            assertEquals("padding " + padding, expected, jsonReader.nextString());
+            jsonReader.endArray();
+            assertEquals(JsonPullReader.Token.END_DOCUMENT, jsonReader.peek());
+        }
+
+        // And with a reader that only ever hands over a few characters at a time
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            JsonPullReader jsonReader = new JsonPullReader(new ChunkedReader("[\"" + escaped + "\"]", chunk));
+            jsonReader.beginArray();
+            assertEquals("chunk " + chunk, expected, jsonReader.nextString());
+            jsonReader.endArray();
+        }
+    }
+
+    @Test
+    public void skipsNestedValues() throws IOException {
+        String json = "{\"skipped\": {\"a\": [1, [2, {\"b\": null}], \"]}\"], \"c\": {}}, \"kept\": true}";
+        JsonPullReader jsonReader = new JsonPullReader(new ChunkedReader(json, 3));
+
+        jsonReader.beginObject();
+        assertEquals("skipped", jsonReader.nextName());
+        jsonReader.skipValue();
+        assertEquals("kept", jsonReader.nextName());
+        assertEquals("true", jsonReader.nextString());
+        assertFalse(jsonReader.hasNext());
+        jsonReader.endObject();
+        assertEquals(JsonPullReader.Token.END_DOCUMENT, jsonReader.peek());
+    }
+
+    @Test(expected = JsonPullReader.SyntaxException.class)
+    public void rejectsUnterminatedString() throws IOException {
+        JsonPullReader jsonReader = new JsonPullReader(new StringReader("[\"Lemon chees"));
+        jsonReader.beginArray();
+        jsonReader.nextString();
+    }
+
+    @Test(expected = JsonPullReader.SyntaxException.class)
+    public void rejectsFeedThatIsNotAnArray() throws IOException {
+        CakeFeedParser.parse(new StringReader("{\"title\":\"Lemon cheesecake\"}"), new CakeFeedParser.Listener() {
+            @Override
+            public void onCake(Cake cake) {
+            }
+        });
+    }
+
+    @Test
+    public void wrongTokenIsASyntaxErrorWithItsPosition() throws IOException {
+        JsonPullReader jsonReader = new JsonPullReader(new StringReader("[{\"title\": [1]}]"));
+        jsonReader.beginArray();
+        jsonReader.beginObject();
+        assertEquals("title", jsonReader.nextName());
+        try {
+            jsonReader.nextString();
+            fail("Expected an array to be rejected as a string");
+        } catch (JsonPullReader.SyntaxException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("at character 12"));
+        }
+    }
+
+    @Test(expected = JsonPullReader.SyntaxException.class)
+    public void rejectsValueWhereEndWasExpected() throws IOException {
+        JsonPullReader jsonReader = new JsonPullReader(new StringReader("[]"));
+        jsonReader.beginArray();
+        jsonReader.skipValue();
+    }
+
+    static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Hands over at most a few characters per read, the way a slow connection does.
+     */
+    static class ChunkedReader extends Reader {
+
+        private final String mText;
+        private final int mChunkSize;
+        private int mPos;
+
+        ChunkedReader(String text, int chunkSize) {
+            this.mText = text;
+            this.mChunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (mPos == mText.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, mChunkSize), mText.length() - mPos);
+            mText.getChars(mPos, mPos + count, buffer, offset);
+            mPos += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
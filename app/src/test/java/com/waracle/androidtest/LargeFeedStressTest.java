@@ -0,0 +1,130 @@
+package com.waracle.androidtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads synthetic feeds from 10 to 100k entries off a {@link StandInCakeServer} the way a load
+ * does, through the {@link FeedCache}, {@link CakeFeedParser} and a {@link CakeCatalog}. The parse
+ * time, time to the first screen of cakes and peak heap of each are reported by any check that fails.
+ */
+public class LargeFeedStressTest {
+
+    // Cakes needed to fill the first screen
+    private static final int FIRST_SCREEN_CAKES = 10;
+    // How often the heap is sampled while parsing
+    private static final int HEAP_SAMPLE_INTERVAL = 1000;
+
+    private File mCacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mCacheDir = File.createTempFile("stress-cache", "");
+        mCacheDir.delete();
+        mCacheDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mCacheDir.delete();
+    }
+
+    @Test
+    public void loadsFeedsOfEverySize() throws IOException {
+        for (int cakeCount : new int[]{10, 1000, 10000, 100000}) {
+            FeedStats stats = load(cakeCount, 0.5f);
+            assertEquals(stats.toString(), cakeCount, stats.mCakes.size());
+            // Cakes are shown as they are parsed, not once the whole feed is in
+            assertTrue(stats.toString(),
+                    cakeCount <= FIRST_SCREEN_CAKES || stats.mFirstScreenNanos < stats.mParseNanos);
+        }
+    }
+
+    @Test
+    public void sharesRepeatedCakesInLargeFeeds() throws IOException {
+        FeedStats stats = load(100000, 0.9f);
+
+        assertEquals(stats.toString(), 10000, stats.mCakes.getDistinctCount());
+        assertSame(stats.toString(), stats.mCakes.get(0), stats.mCakes.get(10000));
+        assertTrue(stats.toString(), stats.mCakes.getBytesSaved() > 0);
+    }
+
+    private FeedStats load(int cakeCount, float duplicationRatio) throws IOException {
+        StandInCakeServer server = new StandInCakeServer(cakeCount, duplicationRatio, 1, 0);
+        try {
+            System.gc();
+            final Runtime runtime = Runtime.getRuntime();
+            final long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+            final FeedStats stats = new FeedStats(cakeCount, duplicationRatio);
+            final CakeCatalog.Builder builder = new CakeCatalog.Builder();
+
+            final long start = System.nanoTime();
+            InputStream inputStream = new FeedCache(mCacheDir, 0).open(server.getFeedUrl());
+            Reader reader = new InputStreamReader(inputStream, "UTF-8");
+            try {
+                CakeFeedParser.parse(reader, new CakeFeedParser.Listener() {
+                    @Override
+                    public void onCake(Cake cake) {
+                        builder.add(cake);
+                        if (builder.size() == FIRST_SCREEN_CAKES) {
+                            stats.mFirstScreenNanos = System.nanoTime() - start;
+                        }
+                        if (builder.size() % HEAP_SAMPLE_INTERVAL == 0) {
+                            stats.sampleHeap(runtime.totalMemory() - runtime.freeMemory() - heapBefore);
+                        }
+                    }
+                });
+            } finally {
+                reader.close();
+            }
+            stats.mParseNanos = System.nanoTime() - start;
+            stats.mCakes = builder.build();
+            stats.sampleHeap(runtime.totalMemory() - runtime.freeMemory() - heapBefore);
+            return stats;
+        } finally {
+            server.close();
+        }
+    }
+
+    private static class FeedStats {
+
+        final int mCakeCount;
+        final float mDuplicationRatio;
+        CakeCatalog mCakes;
+        long mParseNanos;
+        long mFirstScreenNanos;
+        long mPeakHeapBytes;
+
+        FeedStats(int cakeCount, float duplicationRatio) {
+            this.mCakeCount = cakeCount;
+            this.mDuplicationRatio = duplicationRatio;
+        }
+
+        void sampleHeap(long heapBytes) {
+            mPeakHeapBytes = Math.max(mPeakHeapBytes, heapBytes);
+        }
+
+        @Override
+        public String toString() {
+            return mCakeCount + " cakes, " + mDuplicationRatio + " repeated: parse " + mParseNanos / 1000000
+                    + "ms, first screen " + mFirstScreenNanos / 1000000 + "ms, peak heap " + mPeakHeapBytes / 1024 + "KB, " + mCakes;
+        }
+    }
+}
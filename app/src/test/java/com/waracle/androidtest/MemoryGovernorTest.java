@@ -0,0 +1,31 @@
+package com.waracle.androidtest;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks how {@link MemoryGovernor} turns trim levels into tiers and sizes the cache budgets.
+ */
+public class MemoryGovernorTest {
+
+    @Test
+    public void trimsHarderAsTheProcessNearsBeingKilled() {
+        assertEquals(MemoryGovernor.Tier.SHRINK, MemoryGovernor.tierFor(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(MemoryGovernor.Tier.DROP_OFF_SCREEN, MemoryGovernor.tierFor(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(MemoryGovernor.Tier.DROP_OFF_SCREEN, MemoryGovernor.tierFor(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(MemoryGovernor.Tier.SHRINK, MemoryGovernor.tierFor(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(MemoryGovernor.Tier.DROP_OFF_SCREEN, MemoryGovernor.tierFor(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertEquals(MemoryGovernor.Tier.SPILL, MemoryGovernor.tierFor(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        assertEquals(MemoryGovernor.Tier.SPILL, MemoryGovernor.tierFor(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+        assertEquals(MemoryGovernor.Tier.NONE, MemoryGovernor.tierFor(0));
+    }
+
+    @Test
+    public void budgetsFollowTheMemoryClass() {
+        assertEquals(8 * 1024 * 1024, MemoryGovernor.budgetBytes(64, false, 8));
+        assertEquals(4 * 1024 * 1024, MemoryGovernor.budgetBytes(64, true, 8));
+    }
+}
@@ -0,0 +1,61 @@
+package com.waracle.androidtest;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the percentiles, counters and event ring of {@link Metrics}.
+ */
+public class MetricsTest {
+
+    @Test
+    public void percentilesFallInTheRightBucket() {
+        Metrics metrics = new Metrics();
+        for (int i = 0; i < 90; i++) {
+            metrics.recordNanos(Metrics.Timer.ROW_BIND, TimeUnit.MICROSECONDS.toNanos(300));
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.recordNanos(Metrics.Timer.ROW_BIND, TimeUnit.MILLISECONDS.toNanos(40));
+        }
+
+        assertEquals(100, metrics.getCount(Metrics.Timer.ROW_BIND));
+        // 300us is in the 256-511us bucket, 40ms is the largest timing so the max bounds it
+        assertEquals(511, metrics.getPercentileMicros(Metrics.Timer.ROW_BIND, 0.5));
+        assertEquals(511, metrics.getPercentileMicros(Metrics.Timer.ROW_BIND, 0.9));
+        assertEquals(40000, metrics.getPercentileMicros(Metrics.Timer.ROW_BIND, 0.99));
+        assertEquals(0, metrics.getPercentileMicros(Metrics.Timer.IMAGE_DECODE, 0.5));
+    }
+
+    @Test
+    public void ringKeepsOnlyTheLatestEvents() {
+        Metrics metrics = new Metrics();
+        for (int i = 0; i < Metrics.EVENT_CAPACITY + 10; i++) {
+            metrics.trace("event " + i);
+        }
+        metrics.increment(Metrics.Counter.DISK_CACHE_HIT);
+
+        String dump = metrics.dump(true);
+
+        assertFalse(dump.contains("event 9\n"));
+        assertTrue(dump.contains("event 10\n"));
+        assertTrue(dump.contains("event " + (Metrics.EVENT_CAPACITY + 9) + "\n"));
+        assertTrue(dump.contains("DISK_CACHE_HIT: 1\n"));
+    }
+
+    @Test
+    public void tracesOneCallInEachInterval() {
+        Metrics metrics = new Metrics();
+        int traced = 0;
+        for (int i = 0; i < Metrics.TRACE_SAMPLE_INTERVAL * 4; i++) {
+            if (metrics.shouldTrace()) {
+                traced++;
+            }
+        }
+        assertEquals(4, traced);
+    }
+}
@@ -0,0 +1,43 @@
+package com.waracle.androidtest;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which failures {@link RetryPolicy} retries and how long it waits between them.
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void retriesOnlyFailuresThatMayClearUp() {
+        RetryPolicy retryPolicy = new RetryPolicy(1000, 60 * 1000, 3);
+
+        assertTrue(retryPolicy.shouldRetry(new SocketTimeoutException("timed out"), 1));
+        assertTrue(retryPolicy.shouldRetry(new HttpStatusException(503, "unavailable"), 1));
+        assertTrue(retryPolicy.shouldRetry(new HttpStatusException(429, "too many requests"), 2));
+        assertFalse(retryPolicy.shouldRetry(new HttpStatusException(404, "not found"), 1));
+        assertFalse(retryPolicy.shouldRetry(new FileNotFoundException("gone"), 1));
+        assertFalse(retryPolicy.shouldRetry(new JsonPullReader.SyntaxException("malformed"), 1));
+        assertFalse(retryPolicy.shouldRetry(new IOException("reset"), 3));
+    }
+
+    @Test
+    public void delayDoublesWithJitterUpToTheCap() {
+        RetryPolicy retryPolicy = new RetryPolicy(1000, 8 * 1000, 10);
+
+        for (int i = 0; i < 100; i++) {
+            long first = retryPolicy.getDelayMillis(1);
+            long third = retryPolicy.getDelayMillis(3);
+            long tenth = retryPolicy.getDelayMillis(10);
+            assertTrue(first >= 500 && first <= 1000);
+            assertTrue(third >= 2000 && third <= 4000);
+            assertTrue(tenth >= 4000 && tenth <= 8000);
+        }
+    }
+}
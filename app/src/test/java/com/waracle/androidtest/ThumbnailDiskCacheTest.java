@@ -0,0 +1,195 @@
+package com.waracle.androidtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ThumbnailDiskCache} keeps its LRU order across restarts and crashes.
+ */
+public class ThumbnailDiskCacheTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("thumbnails", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void replaysJournalAfterReopen() throws IOException {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 300);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 2));
+        cache.put("c", bytes(100, 3));
+        cache.remove("c");
+        // Makes b the least recently used
+        assertNotNull(cache.get("a"));
+
+        ThumbnailDiskCache reopened = new ThumbnailDiskCache(mDirectory, 300);
+        assertEquals(2, reopened.getEntryCount());
+        assertEquals(200, reopened.getSizeBytes());
+        assertArrayEquals(bytes(100, 1), reopened.get("a"));
+        assertNull(reopened.get("c"));
+
+        // The order read back decides what goes first
+        reopened.put("d", bytes(100, 4));
+        reopened.put("e", bytes(100, 5));
+        assertNull(reopened.get("b"));
+        assertNotNull(reopened.get("a"));
+    }
+
+    @Test
+    public void discardsWriteCutShortByCrash() throws IOException {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 1000);
+        cache.put("a", bytes(100, 1));
+
+        /* Thumbnails are written aside and only journalled once in place, so a crash leaves either
+        a temp file or a file with no CLEAN record. Neither may be served after a restart. */
+        write(new File(mDirectory, "b.tmp"), bytes(50, 2));
+        write(new File(mDirectory, "c"), bytes(50, 3));
+        // A CLEAN record cut short by the crash
+        appendToJournal("CLEAN d");
+        write(new File(mDirectory, "d"), bytes(50, 4));
+
+        ThumbnailDiskCache reopened = new ThumbnailDiskCache(mDirectory, 1000);
+        assertEquals(1, reopened.getEntryCount());
+        assertEquals(100, reopened.getSizeBytes());
+        assertNull(reopened.get("c"));
+        assertNull(reopened.get("d"));
+        assertFalse(new File(mDirectory, "b.tmp").exists());
+        assertFalse(new File(mDirectory, "c").exists());
+        assertFalse(new File(mDirectory, "d").exists());
+        assertArrayEquals(bytes(100, 1), reopened.get("a"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() throws IOException {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 300);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 2));
+        cache.put("c", bytes(100, 3));
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", bytes(100, 4));
+        assertNull(cache.get("b"));
+        assertFalse(new File(mDirectory, "b").exists());
+
+        // One big enough to push out everything older than it but the most recently read
+        assertNotNull(cache.get("a"));
+        cache.put("e", bytes(200, 5));
+        assertEquals(300, cache.getSizeBytes());
+        assertNull(cache.get("c"));
+        assertNull(cache.get("d"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("e"));
+    }
+
+    @Test
+    public void compactsJournalOnceMostlyRedundant() throws IOException {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 1000);
+        cache.put("a", bytes(10, 1));
+        cache.put("b", bytes(10, 2));
+
+        int reads = 5000;
+        for (int i = 0; i < reads; i++) {
+            assertNotNull(cache.get(i % 2 == 0 ? "a" : "b"));
+        }
+
+        // Rewritten at least once along the way, so far fewer lines than operations
+        int lines = journalLineCount();
+        assertTrue("journal has " + lines + " lines", lines < reads / 2);
+
+        ThumbnailDiskCache reopened = new ThumbnailDiskCache(mDirectory, 1000);
+        assertEquals(2, reopened.getEntryCount());
+        assertArrayEquals(bytes(10, 2), reopened.get("b"));
+    }
+
+    @Test
+    public void thumbnailStoredOnWifiIsFoundAfterSwitchingToMetered() throws IOException {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 1000);
+        String url = "https://example.com/lemon.jpg";
+        // Wi-Fi, metered and slow
+        float[] scales = {1f, 0.75f, 0.5f};
+        cache.put(ThumbnailDiskCache.key(url, 96, 96), bytes(100, 1));
+
+        // On metered data the 72px thumbnail isn't stored, but the 96px one is used instead of downloading
+        String key = cache.findKey(url, ImageSizing.cachedSizes(96, 96, 0.75f, scales, true));
+        assertEquals(ThumbnailDiskCache.key(url, 96, 96), key);
+        assertArrayEquals(bytes(100, 1), cache.get(key));
+        assertNull(cache.findKey("https://example.com/banana.jpg",
+                ImageSizing.cachedSizes(96, 96, 0.75f, scales, true)));
+
+        // Back on Wi-Fi a 48px one stored while slow isn't good enough, the image is fetched again
+        String slowUrl = "https://example.com/carrot.jpg";
+        cache.put(ThumbnailDiskCache.key(slowUrl, 48, 48), bytes(50, 2));
+        assertNull(cache.findKey(slowUrl, ImageSizing.cachedSizes(96, 96, 1f, scales, false)));
+        assertEquals(ThumbnailDiskCache.key(slowUrl, 48, 48),
+                cache.findKey(slowUrl, ImageSizing.cachedSizes(96, 96, 0.75f, scales, true)));
+    }
+
+    private int journalLineCount() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(new File(mDirectory, "journal")));
+        try {
+            int count = 0;
+            while (reader.readLine() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void appendToJournal(String line) throws IOException {
+        OutputStream outputStream = new FileOutputStream(new File(mDirectory, "journal"), true);
+        try {
+            outputStream.write((line + "\n").getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) value;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,65 @@
+package com.waracle.androidtest;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a whole feed into a {@link CakeCatalog}, by building the JSON document first and by
+ * streaming it, for a feed of all different cakes and one that mostly repeats a few. Scores and
+ * the gc profiler's allocation figures are per cake.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FeedParseBenchmark {
+
+    // Named as it appears in the reports
+    @Param({"unique", "duplicates"})
+    public String feed;
+
+    private String mJson;
+
+    @Setup
+    public void setUp() {
+        mJson = SyntheticFeed.json("duplicates".equals(feed));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticFeed.CAKE_COUNT)
+    public CakeCatalog documentParse() throws JSONException {
+        CatalogListener listener = new CatalogListener();
+        CakeFeedParser.parseDocument(mJson, listener);
+        return listener.mCakes.build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticFeed.CAKE_COUNT)
+    public CakeCatalog streamingParse() throws IOException {
+        CatalogListener listener = new CatalogListener();
+        CakeFeedParser.parse(new StringReader(mJson), listener);
+        return listener.mCakes.build();
+    }
+
+    // Adds every cake to a catalog, as a load does
+    private static class CatalogListener implements CakeFeedParser.Listener {
+
+        final CakeCatalog.Builder mCakes = new CakeCatalog.Builder();
+
+        @Override
+        public void onCake(Cake cake) {
+            mCakes.add(cake);
+        }
+    }
+}
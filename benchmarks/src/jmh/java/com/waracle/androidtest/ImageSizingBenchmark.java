@@ -0,0 +1,40 @@
+package com.waracle.androidtest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out the sample size and decoded size for images from thumbnail sized to camera sized,
+ * the sums run for every image decoded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageSizingBenchmark {
+
+    // Source image sides, from a small thumbnail to a large photo
+    private final int[] mImageSizes = {120, 480, 1024, 2048, 4096, 8192};
+    // Row image sides on screens from ldpi to xxxhdpi
+    private final int[] mTargetSizes = {36, 72, 108, 144, 192};
+
+    @Benchmark
+    @OperationsPerInvocation(30)
+    public int sampleSize() {
+        int total = 0;
+        for (int imageSize : mImageSizes) {
+            for (int targetSize : mTargetSizes) {
+                int inSampleSize = ImageSizing.calculateInSampleSize(imageSize, imageSize * 3 / 4, targetSize,
+                        targetSize);
+                total += ImageSizing.sampledSize(imageSize, inSampleSize);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,31 @@
+package com.waracle.androidtest;
+
+/**
+ * Builds feeds shaped like the real one for the benchmarks, either every cake different or
+ * most of them repeating a few, as the real feed does.
+ */
+final class SyntheticFeed {
+
+    // Cakes in every feed, each benchmark invocation parses the whole of one
+    static final int CAKE_COUNT = 10000;
+
+    private SyntheticFeed() {
+        /* Static helpers only */
+    }
+
+    static String json(boolean duplicateHeavy) {
+        // A duplicate heavy feed cycles through twenty cakes, like the real feed repeats its few
+        int distinctCount = duplicateHeavy ? 20 : CAKE_COUNT;
+        StringBuilder json = new StringBuilder(CAKE_COUNT * 160).append('[');
+        for (int i = 0; i < CAKE_COUNT; i++) {
+            int cake = i % distinctCount;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"title\":\"Cake ").append(cake)
+                    .append("\",\"desc\":\"A cake with ").append(cake % 7).append(" layers, number ").append(cake)
+                    .append("\",\"image\":\"https://example.com/cakes/").append(cake).append(".jpg\"}");
+        }
+        return json.append(']').toString();
+    }
+}